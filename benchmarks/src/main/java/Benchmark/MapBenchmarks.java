@@ -0,0 +1,408 @@
+package Benchmark;
+
+import Algorithm.AnytimePlanner;
+import Algorithm.BidirectionalPlanner;
+import Algorithm.DistanceOracle;
+import Algorithm.FastestPath;
+import Algorithm.MotionCompiler;
+import Algorithm.MotionCompiler.Motion;
+import Algorithm.MotionCostModel;
+import Algorithm.PathCache;
+import Algorithm.WaypointPlanner;
+import Map.ArenaGenerator;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+import Map.MapConstants;
+import Map.MapDescriptor;
+import Map.ObsSurface;
+import Map.ObstacleBitplane;
+import Robot.BatchSensing;
+import Robot.Command;
+import Robot.Robot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.Point;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+
+/**
+ * JMH benchmarks of the planning, sensing, MDF encoding and map queries. Built and run from the project root:
+ *   mvn install && mvn -f benchmarks/pom.xml package
+ *   java -jar benchmarks/target/benchmarks.jar [jmh options, e.g. a benchmark regex or -rf json -rff results.json]
+ * main adds the gc profiler, so that the results include the allocation rate and bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapBenchmarks {
+
+    private static final String SAMPLES_DIR = "src/Map/MapSamples";
+    private static final String DEFAULT_MAP = "defaultMap.txt";
+
+    private static final Point START = new Point(MapConstants.STARTZONE_COL, MapConstants.STARTZONE_ROW);
+    private static final Point GOAL = new Point(MapConstants.GOALZONE_COL, MapConstants.GOALZONE_ROW);
+    private static final Point CENTRE = new Point(MapConstants.MAP_WIDTH / 2, MapConstants.MAP_HEIGHT / 2);
+
+    private static Map loadMap(String filename) {
+        MapDescriptor mdf = new MapDescriptor();
+        Map map = new Map();
+        mdf.loadRealMap(map, filename);
+        return map;
+    }
+
+    /**
+     * The robot and the map print their progress on System.out and the logger, which would be timed with them
+     */
+    private static void silence() {
+        LogManager.getLogManager().reset();
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    /**
+     * A sample map, searched without the path cache, with a new FastestPath per search as in the exploration
+     */
+    @State(Scope.Benchmark)
+    public static class SampleMap {
+        @Param({"Arena", "DontGoOut", "Sample1", "Sample2", "SampleArena", "Testing", "Week10", "Week11", "Week8"})
+        public String name;
+
+        Map map;
+        Robot robot;
+
+        @Setup
+        public void setup() {
+            silence();
+            map = loadMap(SAMPLES_DIR + File.separator + name + ".txt");
+            robot = new Robot(true, true, START.y, START.x, Direction.UP);
+            PathCache.setEnabled(false);
+        }
+
+        @TearDown
+        public void tearDown() {
+            PathCache.setEnabled(true);
+        }
+    }
+
+    /**
+     * A sample map where the centre of the arena can be reached
+     */
+    @State(Scope.Benchmark)
+    public static class CentreMap {
+        @Param({"Arena", "DontGoOut", "Sample1", "SampleArena", "Week10", "Week8"})
+        public String name;
+
+        Map map;
+        Robot robot;
+        List<Point> waypoints;
+        DistanceOracle oracle;
+
+        @Setup
+        public void setup() {
+            silence();
+            map = loadMap(SAMPLES_DIR + File.separator + name + ".txt");
+            robot = new Robot(true, true, START.y, START.x, Direction.UP);
+            waypoints = Arrays.asList(CENTRE, GOAL);
+            oracle = new DistanceOracle(map);
+            PathCache.setEnabled(false);
+        }
+
+        @TearDown
+        public void tearDown() {
+            PathCache.setEnabled(true);
+        }
+    }
+
+    /**
+     * The default map, and the fixtures of the benchmarks on it
+     */
+    @State(Scope.Benchmark)
+    public static class DefaultMap {
+        Map map;
+        Robot robot;
+        FastestPath fastestPath;
+        ArrayList<Cell> path;
+        MotionCompiler compiler;
+        MapDescriptor mdf;
+
+        Map senseMap;
+        Robot senseRobot;
+        HashMap<String, Integer> sensorResult;
+
+        @Setup
+        public void setup() {
+            silence();
+            map = loadMap(DEFAULT_MAP);
+            robot = new Robot(true, true, START.y, START.x, Direction.UP);
+            fastestPath = new FastestPath(map, robot, true);
+            path = fastestPath.runAStar(START, GOAL, Direction.UP);
+            compiler = new MotionCompiler(MotionCostModel.defaults());
+            mdf = new MapDescriptor();
+            senseMap = new Map();
+            senseRobot = new Robot(true, false, START.y, START.x, Direction.UP);
+            senseRobot.setStartPos(START.y, START.x, senseMap);
+            sensorResult = new HashMap<String, Integer>(senseRobot.updateSensorRes(senseMap, map));
+        }
+    }
+
+    /**
+     * Random poses over the default map for the batch sensing
+     */
+    @State(Scope.Benchmark)
+    public static class Poses {
+        static final int COUNT = 10000;
+
+        ObstacleBitplane plane;
+        BatchSensing batchSensing;
+        final int[] rows = new int[COUNT];
+        final int[] cols = new int[COUNT];
+        final Direction[] dirs = new Direction[COUNT];
+        int[] readings;
+
+        @Setup
+        public void setup() {
+            silence();
+            plane = new ObstacleBitplane(loadMap(DEFAULT_MAP));
+            batchSensing = new BatchSensing();
+            Random random = new Random(1);
+            for (int i = 0; i < COUNT; i++) {
+                rows[i] = 1 + random.nextInt(MapConstants.MAP_HEIGHT - 2);
+                cols[i] = 1 + random.nextInt(MapConstants.MAP_WIDTH - 2);
+                dirs[i] = Direction.values()[random.nextInt(Direction.values().length)];
+            }
+            readings = new int[COUNT * batchSensing.getSensorCount()];
+        }
+    }
+
+    /**
+     * The default map explored up to the middle row. The robot position alternates between two cells so that the
+     * distance field is recomputed for every query
+     */
+    @State(Scope.Benchmark)
+    public static class HalfMap {
+        Map map;
+        final Point[] botLocs = {new Point(START), new Point(START.x + 1, START.y)};
+        Point unexplored;
+        int turn;
+
+        @Setup
+        public void setup() {
+            silence();
+            map = loadMap(DEFAULT_MAP);
+            for (int row = MapConstants.MAP_HEIGHT / 2; row < MapConstants.MAP_HEIGHT; row++) {
+                for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
+                    map.getCell(row, col).setExplored(false);
+                }
+            }
+            unexplored = map.nearestUnexplored(START).getPos();
+        }
+
+        Point nextBotLoc() {
+            return botLocs[turn++ & 1];
+        }
+    }
+
+    /**
+     * A large generated arena, for the long corner to corner queries
+     */
+    @State(Scope.Benchmark)
+    public static class Arena {
+        @Param({"60", "120", "200"})
+        public int size;
+
+        WaypointPlanner astar;
+        BidirectionalPlanner bidirectional;
+        AnytimePlanner anytime;
+        List<Point> corner;
+
+        @Setup
+        public void setup() {
+            silence();
+            double density = size <= 60 ? 0.15 : size <= 120 ? 0.1 : 0.08;
+            Map arena = new ArenaGenerator(size, size, density, 0.5, size / 20).generate(1, 0);
+            corner = Arrays.asList(new Point(size - 2, size - 2));
+            astar = new WaypointPlanner(arena);
+            bidirectional = new BidirectionalPlanner(arena);
+            // epsilon INITIAL_EPSILON and no time budget: the first path only
+            anytime = new AnytimePlanner(arena, 0);
+        }
+    }
+
+    // Planning
+
+    @Benchmark
+    public ArrayList<Cell> runAStarStartGoal(SampleMap s) {
+        return new FastestPath(s.map, s.robot, true).runAStar(START, GOAL, Direction.UP);
+    }
+
+    @Benchmark
+    public ArrayList<Cell> runAStarGoalStart(SampleMap s) {
+        return new FastestPath(s.map, s.robot, true).runAStar(GOAL, START, Direction.DOWN);
+    }
+
+    @Benchmark
+    public ArrayList<Cell> runAStarStartCentre(CentreMap s) {
+        return new FastestPath(s.map, s.robot, true).runAStar(START, CENTRE, Direction.UP);
+    }
+
+    @Benchmark
+    public ArrayList<Cell> waypointPlannerStartCentreGoal(CentreMap s) {
+        return new WaypointPlanner(s.map).plan(START, Direction.UP, s.waypoints);
+    }
+
+    @Benchmark
+    public ArrayList<Cell> distanceOracleStartCentreGoal(CentreMap s) {
+        return s.oracle.plan(START, Direction.UP, s.waypoints);
+    }
+
+    @Benchmark
+    public ArrayList<Cell> runAStarCached(DefaultMap s) {
+        return new FastestPath(s.map, s.robot, true).runAStar(START, GOAL, Direction.UP);
+    }
+
+    @Benchmark
+    public ArrayList<Command> getPathCommands(DefaultMap s) throws InterruptedException {
+        return s.fastestPath.getPathCommands(s.path);
+    }
+
+    @Benchmark
+    public DistanceOracle distanceOracleBuild(DefaultMap s) {
+        return new DistanceOracle(s.map);
+    }
+
+    @Benchmark
+    public ArrayList<Motion> motionCompilerCompile(DefaultMap s) {
+        return s.compiler.compile(START, Direction.UP, s.path);
+    }
+
+    // MDF encoding
+
+    @Benchmark
+    public String generateMDFString1(DefaultMap s) {
+        return s.mdf.generateMDFString1(s.map);
+    }
+
+    @Benchmark
+    public String generateMDFString2(DefaultMap s) {
+        return s.mdf.generateMDFString2(s.map);
+    }
+
+    @Benchmark
+    public Map loadRealMap(DefaultMap s) {
+        Map map = new Map();
+        s.mdf.loadRealMap(map, DEFAULT_MAP);
+        return map;
+    }
+
+    // Sensing
+
+    @Benchmark
+    public ArrayList<ObsSurface> senseFreshMap(DefaultMap s) {
+        s.senseMap.resetMap();
+        s.senseRobot.setStartPos(START.y, START.x, s.senseMap);
+        return s.senseRobot.sense(s.senseMap, s.map);
+    }
+
+    @Benchmark
+    public Map updateMap(DefaultMap s) {
+        s.senseRobot.updateMap(s.senseMap, s.map, s.sensorResult);
+        return s.senseMap;
+    }
+
+    @Benchmark
+    public ObstacleBitplane obstacleBitplaneBuild(DefaultMap s) {
+        return new ObstacleBitplane(s.map);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int[] batchSensingDetect(Poses s) {
+        s.batchSensing.detect(s.plane, s.rows, s.cols, s.dirs, Poses.COUNT, s.readings);
+        return s.readings;
+    }
+
+    // Map queries
+
+    @Benchmark
+    public Cell nearestUnexplored(HalfMap s) {
+        return s.map.nearestUnexplored(s.nextBotLoc());
+    }
+
+    @Benchmark
+    public Cell nearestExplored(HalfMap s) {
+        return s.map.nearestExplored(s.unexplored, s.nextBotLoc());
+    }
+
+    @Benchmark
+    public Map reinitVirtualWall(DefaultMap s) {
+        s.map.reinitVirtualWall();
+        return s.map;
+    }
+
+    // Long queries across large generated arenas, plain A* against bidirectional A* and the anytime planner
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayList<Cell> waypointPlannerCornerCorner(Arena s) {
+        return s.astar.plan(START, Direction.UP, s.corner);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayList<Cell> bidirectionalPlannerCornerCorner(Arena s) {
+        return s.bidirectional.plan(START, Direction.UP, s.corner);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayList<Cell> anytimePlannerCornerCorner(Arena s) {
+        return s.anytime.plan(START, Direction.UP, s.corner);
+    }
+
+    /**
+     * JMH with the gc profiler
+     * @param args JMH command line options
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,377 @@
+package Algorithm;
+
+import Helper.Counter;
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+import Robot.RobotConstants;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Anytime Repairing A* (ARA*) over the (cell, heading) states, with the move and turn costs of FastestPath.
+ * The first search is weighted by epsilon (the path costs at most epsilon times the optimal one) and is fast;
+ * each following search lowers epsilon by a step and reuses the previous one, down to the optimal path.
+ *
+ * start returns the first path once the time budget is spent (or the first path is found, if later) and goes on
+ * improving it in the background, publishing every better path to a Listener. The search runs on a snapshot of
+ * the map taken by the constructor, so the map can change meanwhile: the paths published must be checked on the
+ * current map before being adopted.
+ */
+public class AnytimePlanner implements PathPlanner {
+
+    private static final Logger LOGGER = Logger.getLogger(AnytimePlanner.class.getName());
+
+    private static final LatencyHistogram FIRST_PATH_LATENCY = Metrics.histogram("planning.anytime.first");
+    private static final Counter IMPROVED = Metrics.counter("planning.anytime.improved");
+
+    public static final double INITIAL_EPSILON = 3.0;
+    public static final double EPSILON_STEP = 0.5;
+
+    private static final int HEADINGS = Direction.values().length;
+    // row and col increments of a move in each Direction (UP, LEFT, DOWN, RIGHT)
+    private static final int[] ROW_INC = {1, 0, -1, 0};
+    private static final int[] COL_INC = {0, -1, 0, 1};
+    // expansions between two checks of the deadline
+    private static final int DEADLINE_CHECK = 64;
+
+    private static final ExecutorService REFINER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "anytime-planner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Receives the improved paths, on the planner thread
+     */
+    public interface Listener {
+        /**
+         * @param path positions of the path after the start
+         * @param epsilon bound of the path cost relative to the optimal one
+         */
+        void pathImproved(ArrayList<Point> path, double epsilon);
+    }
+
+    private final Map map;
+    private final int width;
+    private final boolean[] movable;
+    private final long budgetNanos;
+    private final double initialEpsilon;
+    private final double epsilonStep;
+
+    private final double[] g;
+    private final int[] parent;
+    private final boolean[] closed;
+    private final boolean[] inconsistent;
+    private final int[] inconsistentList;   // closed states whose cost has decreased since, for the next search
+    private int inconsistentSize;
+    private PriorityQueue<SearchNode> open = new PriorityQueue<SearchNode>();
+    private long seq;
+
+    private int startState;
+    private Point goal;
+    private int bestGoal;
+    private double epsilon;         // weight of the current search
+    // weight of the last complete search, bound of the best path; written by the refining thread
+    private volatile double provenEpsilon;
+    private int expansions;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param map map, of which the movable cells are copied
+     * @param budgetMs time to spend before returning a path
+     */
+    public AnytimePlanner(Map map, long budgetMs) {
+        this(map, budgetMs, INITIAL_EPSILON, EPSILON_STEP);
+    }
+
+    /**
+     * @param map map, of which the movable cells are copied
+     * @param budgetMs time to spend before returning a path
+     * @param initialEpsilon weight of the heuristic of the first search, >= 1
+     * @param epsilonStep decrease of the weight after each search, > 0
+     */
+    public AnytimePlanner(Map map, long budgetMs, double initialEpsilon, double epsilonStep) {
+        if (initialEpsilon < 1 || epsilonStep <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid epsilon %f, step %f", initialEpsilon, epsilonStep));
+        }
+        this.map = map;
+        this.width = map.getWidth();
+        int cells = map.getHeight() * width;
+        this.movable = new boolean[cells];
+        for (int cell = 0; cell < cells; cell++) {
+            movable[cell] = map.checkValidMove(cell / width, cell % width);
+        }
+        this.budgetNanos = budgetMs * 1000000L;
+        this.initialEpsilon = initialEpsilon;
+        this.epsilonStep = epsilonStep;
+        int states = cells * HEADINGS;
+        g = new double[states];
+        parent = new int[states];
+        closed = new boolean[states];
+        inconsistent = new boolean[states];
+        inconsistentList = new int[states];
+    }
+
+    /**
+     * Stop improving the path in the background
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return weight of the last complete search, the cost of the best path is at most epsilon times the optimal one
+     */
+    public double getEpsilon() {
+        return provenEpsilon;
+    }
+
+    /**
+     * Plan leg by leg within the time budget of each leg, without background improvement
+     */
+    @Override
+    public ArrayList<Cell> plan(Point start, Direction initDir, List<Point> waypoints) {
+        ArrayList<Cell> path = new ArrayList<Cell>();
+        Point from = start;
+        int heading = initDir.ordinal();
+        for (Point wp : waypoints) {
+            if (wp.equals(from)) {
+                continue;
+            }
+            if (!search(from, heading, wp, System.nanoTime() + budgetNanos)) {
+                return null;
+            }
+            for (Point pos : getPath()) {
+                path.add(map.getCell(pos));
+            }
+            from = wp;
+            heading = bestGoal % HEADINGS;
+        }
+        return path;
+    }
+
+    /**
+     * Find a path within the time budget, then go on improving it in the background until it is optimal or
+     * cancel is called. The planner must not be used again meanwhile.
+     * @param start position of the robot
+     * @param dir direction of the robot
+     * @param goal
+     * @param listener receives the better paths found in the background
+     * @return first path, null if there is no path
+     */
+    public ArrayList<Cell> start(Point start, Direction dir, Point goal, final Listener listener) {
+        long startNanos = System.nanoTime();
+        boolean found = search(start, dir.ordinal(), goal, startNanos + budgetNanos);
+        FIRST_PATH_LATENCY.recordSince(startNanos);
+        if (!found) {
+            return null;
+        }
+        ArrayList<Cell> path = new ArrayList<Cell>();
+        for (Point pos : getPath()) {
+            path.add(map.getCell(pos));
+        }
+        LOGGER.info(String.format("Anytime path to %s: cost %.0f, epsilon %.1f, %d states expanded", goal,
+                g[bestGoal], provenEpsilon, expansions));
+        if (epsilon > 1 || !open.isEmpty()) {
+            REFINER.execute(() -> refine(listener));
+        }
+        return path;
+    }
+
+    /**
+     * Improve the path down to epsilon 1, publishing each better path
+     */
+    private void refine(Listener listener) {
+        double published = g[bestGoal];
+        while (!cancelled) {
+            boolean done = improvePath(0);
+            if (done) {
+                provenEpsilon = epsilon;
+            }
+            if (done && bestGoal >= 0 && g[bestGoal] < published) {
+                published = g[bestGoal];
+                IMPROVED.increment();
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine(String.format("Anytime path improved to cost %.0f, epsilon %.1f", published, epsilon));
+                }
+                listener.pathImproved(getPath(), epsilon);
+            }
+            if (epsilon <= 1 || cancelled) {
+                break;
+            }
+            nextSearch();
+        }
+    }
+
+    /**
+     * Run the searches from start until the deadline, and at least until a first path is found
+     * @return true if a path was found
+     */
+    private boolean search(Point start, int heading, Point goal, long deadline) {
+        this.goal = goal;
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        Arrays.fill(closed, false);
+        Arrays.fill(inconsistent, false);
+        inconsistentSize = 0;
+        open.clear();
+        expansions = 0;
+        bestGoal = -1;
+        epsilon = initialEpsilon;
+        provenEpsilon = initialEpsilon;
+        if (!map.checkValidCell(start.y, start.x) || !map.checkValidMove(goal.y, goal.x)) {
+            LOGGER.warning(String.format("Cannot find a path from %s to %s", start, goal));
+            return false;
+        }
+        startState = (start.y * width + start.x) * HEADINGS + heading;
+        g[startState] = 0;
+        if (start.equals(goal)) {
+            bestGoal = startState;
+            epsilon = 1;
+            provenEpsilon = 1;
+            return true;
+        }
+        push(startState);
+
+        improvePath(0);
+        if (bestGoal < 0) {
+            LOGGER.warning(String.format("Cannot find a path from %s to %s", start, goal));
+            return false;
+        }
+        while (epsilon > 1 && System.nanoTime() < deadline) {
+            nextSearch();
+            if (!improvePath(deadline)) {
+                // the weight of the interrupted search is not proven, the refinement resumes it
+                break;
+            }
+            provenEpsilon = epsilon;
+        }
+        return true;
+    }
+
+    /**
+     * Lower epsilon and start the next search from the open and inconsistent states
+     */
+    private void nextSearch() {
+        epsilon = Math.max(1, epsilon - epsilonStep);
+        PriorityQueue<SearchNode> previous = open;
+        open = new PriorityQueue<SearchNode>(Math.max(1, previous.size() + inconsistentSize));
+        for (SearchNode node : previous) {
+            if (!closed[node.state] && !inconsistent[node.state]) {
+                // marks the state as queued, cleared below
+                inconsistent[node.state] = true;
+                inconsistentList[inconsistentSize++] = node.state;
+            }
+        }
+        for (int i = 0; i < inconsistentSize; i++) {
+            int state = inconsistentList[i];
+            inconsistent[state] = false;
+            push(state);
+        }
+        inconsistentSize = 0;
+        Arrays.fill(closed, false);
+    }
+
+    /**
+     * Expand states until the best path to the goal is proven within epsilon of the optimal one
+     * @param deadline System.nanoTime() after which to stop, 0 for none
+     * @return true if the search is complete, false if the deadline was reached or the planner cancelled
+     * (the search can be resumed)
+     */
+    private boolean improvePath(long deadline) {
+        int sinceCheck = 0;
+        while (!open.isEmpty()) {
+            SearchNode top = open.peek();
+            if (closed[top.state] || top.f != getKey(top.state)) {
+                // stale entry
+                open.poll();
+                continue;
+            }
+            if (bestGoal >= 0 && g[bestGoal] <= top.f) {
+                return true;
+            }
+            if (++sinceCheck == DEADLINE_CHECK) {
+                sinceCheck = 0;
+                if (cancelled || (deadline > 0 && System.nanoTime() > deadline)) {
+                    return false;
+                }
+            }
+            open.poll();
+            int state = top.state;
+            closed[state] = true;
+            expansions++;
+            int heading = state % HEADINGS;
+            int cell = state / HEADINGS;
+            int row = cell / width;
+            int col = cell % width;
+            for (int dir = 0; dir < HEADINGS; dir++) {
+                int newRow = row + ROW_INC[dir];
+                int newCol = col + COL_INC[dir];
+                if (newRow < 0 || newCol < 0 || newCol >= width || newRow * width + newCol >= movable.length ||
+                        !movable[newRow * width + newCol]) {
+                    continue;
+                }
+                int next = (newRow * width + newCol) * HEADINGS + dir;
+                double newG = g[state] + getMoveCost(heading, dir);
+                if (newG < g[next]) {
+                    g[next] = newG;
+                    parent[next] = state;
+                    if (newRow == goal.y && newCol == goal.x && (bestGoal < 0 || newG < g[bestGoal])) {
+                        bestGoal = next;
+                    }
+                    if (!closed[next]) {
+                        push(next);
+                    }
+                    else if (!inconsistent[next]) {
+                        inconsistent[next] = true;
+                        inconsistentList[inconsistentSize++] = next;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void push(int state) {
+        open.add(new SearchNode(state, getKey(state), seq++));
+    }
+
+    private double getKey(int state) {
+        int cell = state / HEADINGS;
+        return g[state] + epsilon * BidirectionalPlanner.getBound(goal.y - cell / width, goal.x - cell % width,
+                state % HEADINGS);
+    }
+
+    private static int getMoveCost(int heading, int dir) {
+        int turns = Math.abs(heading - dir);
+        if (turns == 3) {
+            turns = 1;
+        }
+        return RobotConstants.MOVE_COST + turns * RobotConstants.TURN_COST;
+    }
+
+    /**
+     * @return positions of the best path after the start
+     */
+    private ArrayList<Point> getPath() {
+        ArrayList<Point> path = new ArrayList<Point>();
+        for (int state = bestGoal; state != startState; state = parent[state]) {
+            int cell = state / HEADINGS;
+            path.add(new Point(cell % width, cell / width));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+}
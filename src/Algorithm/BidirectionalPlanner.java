@@ -0,0 +1,277 @@
+package Algorithm;
+
+import Helper.FlightEvents;
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+import Helper.RunProfiler;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+import Robot.RobotConstants;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bidirectional A* over the (cell, heading) states, for long queries on large arenas: a forward search from the
+ * start state and a backward search from the four headings of the goal cell, with the move and turn costs of
+ * FastestPath. The heading of a state is the direction of the last move into the cell, so both searches meet on
+ * the same states and a path through a state is the forward cost plus the backward cost.
+ *
+ * Both searches use the balanced potential p(v) = (h_goal(v) - h_start(v)) / 2 of lower bounds made of the
+ * Manhattan distance and the turns needed for the heading of the state, which is consistent in both directions,
+ * so the search stops as soon as the sum of the two smallest keys reaches the best path found. Waypoints are
+ * planned leg by leg, the heading at each waypoint carrying over to the next leg.
+ */
+public class BidirectionalPlanner implements PathPlanner {
+
+    private static final Logger LOGGER = Logger.getLogger(BidirectionalPlanner.class.getName());
+
+    private static final LatencyHistogram PLAN_LATENCY = Metrics.histogram("planning.bidirectional");
+
+    private static final int HEADINGS = Direction.values().length;
+    // row and col increments of a move in each Direction (UP, LEFT, DOWN, RIGHT)
+    private static final int[] ROW_INC = {1, 0, -1, 0};
+    private static final int[] COL_INC = {0, -1, 0, 1};
+
+    private final Map exploredMap;
+    private final int width;
+    private final int states;
+    private int expansions;
+
+    // per leg search state, reused between the legs
+    private final double[] gForward;
+    private final double[] gBackward;
+    private final int[] parent;     // previous state on the forward side
+    private final int[] next;       // next state towards the goal on the backward side
+    private final boolean[] closedForward;
+    private final boolean[] closedBackward;
+
+    public BidirectionalPlanner(Map exploredMap) {
+        this.exploredMap = exploredMap;
+        this.width = exploredMap.getWidth();
+        this.states = exploredMap.getHeight() * width * HEADINGS;
+        gForward = new double[states];
+        gBackward = new double[states];
+        parent = new int[states];
+        next = new int[states];
+        closedForward = new boolean[states];
+        closedBackward = new boolean[states];
+    }
+
+    /**
+     * @return number of states expanded by the last plan, both directions
+     */
+    public int getExpansions() {
+        return expansions;
+    }
+
+    @Override
+    public ArrayList<Cell> plan(Point start, Direction initDir, List<Point> waypoints) {
+        RunProfiler.enter(RunProfiler.Phase.PLANNING);
+        FlightEvents.AStarEvent event = FlightEvents.beginAStar();
+        long startNanos = System.nanoTime();
+        ArrayList<Cell> path = new ArrayList<Cell>();
+        expansions = 0;
+        try {
+            Point from = start;
+            int heading = initDir.ordinal();
+            for (Point wp : waypoints) {
+                if (wp.equals(from)) {
+                    continue;
+                }
+                int arrival = search(from, heading, wp, path);
+                if (arrival < 0) {
+                    path = null;
+                    return null;
+                }
+                from = wp;
+                heading = arrival;
+            }
+            return path;
+        } finally {
+            PLAN_LATENCY.recordSince(startNanos);
+            FlightEvents.endAStar(event, start, waypoints.isEmpty() ? start : waypoints.get(waypoints.size() - 1),
+                    expansions, path == null ? -1 : path.size());
+            RunProfiler.exit();
+        }
+    }
+
+    /**
+     * Search one leg and add its cells to the path
+     * @return heading at the goal, -1 if there is no path
+     */
+    private int search(Point start, int initHeading, Point goal, ArrayList<Cell> path) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format("Finding path from %s to %s, initial direction: %s", start, goal,
+                    Direction.values()[initHeading]));
+        }
+        if (!exploredMap.checkValidCell(start.y, start.x) || !exploredMap.checkValidMove(goal.y, goal.x)) {
+            LOGGER.warning(String.format("Cannot find a path from %s to %s", start, goal));
+            return -1;
+        }
+        Arrays.fill(gForward, Double.POSITIVE_INFINITY);
+        Arrays.fill(gBackward, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        Arrays.fill(next, -1);
+        Arrays.fill(closedForward, false);
+        Arrays.fill(closedBackward, false);
+        PriorityQueue<SearchNode> forward = new PriorityQueue<SearchNode>();
+        PriorityQueue<SearchNode> backward = new PriorityQueue<SearchNode>();
+        long seq = 0;
+
+        int startCell = start.y * width + start.x;
+        int startState = startCell * HEADINGS + initHeading;
+        gForward[startState] = 0;
+        forward.add(new SearchNode(startState, getPotential(start, goal, start.y, start.x, initHeading), seq++));
+        for (int h = 0; h < HEADINGS; h++) {
+            int goalState = (goal.y * width + goal.x) * HEADINGS + h;
+            gBackward[goalState] = 0;
+            backward.add(new SearchNode(goalState, -getPotential(start, goal, goal.y, goal.x, h), seq++));
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        while (!forward.isEmpty() && !backward.isEmpty()) {
+            // stale entries are dropped first so that the keys are those of open states
+            if (skipClosed(forward, closedForward) || skipClosed(backward, closedBackward)) {
+                continue;
+            }
+            if (forward.peek().f + backward.peek().f >= best) {
+                break;
+            }
+            boolean expandForward = forward.size() <= backward.size();
+            int state = (expandForward ? forward : backward).poll().state;
+            expansions++;
+            int heading = state % HEADINGS;
+            int cell = state / HEADINGS;
+            int row = cell / width;
+            int col = cell % width;
+            if (expandForward) {
+                closedForward[state] = true;
+                for (int dir = 0; dir < HEADINGS; dir++) {
+                    int newRow = row + ROW_INC[dir];
+                    int newCol = col + COL_INC[dir];
+                    if (!exploredMap.checkValidMove(newRow, newCol)) {
+                        continue;
+                    }
+                    int newState = (newRow * width + newCol) * HEADINGS + dir;
+                    double newG = gForward[state] + getMoveCost(heading, dir);
+                    if (newG < gForward[newState] && !closedForward[newState]) {
+                        gForward[newState] = newG;
+                        parent[newState] = state;
+                        forward.add(new SearchNode(newState, newG + getPotential(start, goal, newRow, newCol, dir), seq++));
+                    }
+                    if (newG + gBackward[newState] < best) {
+                        best = newG + gBackward[newState];
+                        meeting = newState;
+                    }
+                }
+            }
+            else {
+                closedBackward[state] = true;
+                // the state is entered from the cell behind it, with any heading there
+                int prevRow = row - ROW_INC[heading];
+                int prevCol = col - COL_INC[heading];
+                if (!exploredMap.checkValidCell(prevRow, prevCol) ||
+                        (!exploredMap.checkValidMove(prevRow, prevCol) && prevRow * width + prevCol != startCell)) {
+                    continue;
+                }
+                for (int h = 0; h < HEADINGS; h++) {
+                    int prevState = (prevRow * width + prevCol) * HEADINGS + h;
+                    double newG = gBackward[state] + getMoveCost(h, heading);
+                    if (newG < gBackward[prevState] && !closedBackward[prevState]) {
+                        gBackward[prevState] = newG;
+                        next[prevState] = state;
+                        backward.add(new SearchNode(prevState, newG - getPotential(start, goal, prevRow, prevCol, h), seq++));
+                    }
+                    if (gForward[prevState] + newG < best) {
+                        best = gForward[prevState] + newG;
+                        meeting = prevState;
+                    }
+                }
+            }
+        }
+
+        if (meeting < 0) {
+            LOGGER.warning(String.format("Cannot find a path from %s to %s, dir: %s", start, goal,
+                    Direction.values()[initHeading]));
+            return -1;
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format("Path found, cost %.0f, %d states expanded", best, expansions));
+        }
+
+        // forward half up to the meeting state, then the backward half
+        int first = path.size();
+        for (int state = meeting; state != startState; state = parent[state]) {
+            path.add(getCell(state));
+        }
+        Collections.reverse(path.subList(first, path.size()));
+        int state = meeting;
+        while (next[state] >= 0) {
+            state = next[state];
+            path.add(getCell(state));
+        }
+        return state % HEADINGS;
+    }
+
+    /**
+     * Drop the closed state on top of the open list
+     * @return true if one was dropped
+     */
+    private static boolean skipClosed(PriorityQueue<SearchNode> open, boolean[] closed) {
+        if (closed[open.peek().state]) {
+            open.poll();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Balanced potential of the forward search, the backward search uses its opposite
+     */
+    private static double getPotential(Point start, Point goal, int row, int col, int heading) {
+        return (getBound(goal.y - row, goal.x - col, heading) - getBound(row - start.y, col - start.x, heading)) / 2.0;
+    }
+
+    /**
+     * Lower bound of the cost of a displacement (rowDiff, colDiff) starting with heading heading: the Manhattan
+     * distance and the turns needed to move along both axes or to turn away from the heading.
+     * The same bound holds for a path ending with heading heading, by walking it backwards.
+     */
+    static int getBound(int rowDiff, int colDiff, int heading) {
+        int axes = (rowDiff != 0 ? 1 : 0) + (colDiff != 0 ? 1 : 0);
+        int turns = 0;
+        if (axes > 0) {
+            boolean along = ROW_INC[heading] * rowDiff > 0 || COL_INC[heading] * colDiff > 0;
+            boolean against = ROW_INC[heading] * rowDiff < 0 || COL_INC[heading] * colDiff < 0;
+            if (axes == 1) {
+                turns = along ? 0 : (against ? 2 : 1);
+            }
+            else {
+                turns = along ? 1 : 2;
+            }
+        }
+        return RobotConstants.MOVE_COST * (Math.abs(rowDiff) + Math.abs(colDiff)) + RobotConstants.TURN_COST * turns;
+    }
+
+    private static int getMoveCost(int heading, int dir) {
+        int turns = Math.abs(heading - dir);
+        if (turns == 3) {
+            turns = 1;
+        }
+        return RobotConstants.MOVE_COST + turns * RobotConstants.TURN_COST;
+    }
+
+    private Cell getCell(int state) {
+        int cell = state / HEADINGS;
+        return exploredMap.getCell(cell / width, cell % width);
+    }
+}
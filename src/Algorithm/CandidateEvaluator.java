@@ -0,0 +1,149 @@
+package Algorithm;
+
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+import Robot.RobotConstants;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Choose where to go among candidate sensing cells: each candidate is planned in parallel on the common fork-join
+ * pool, with its own BidirectionalPlanner on a copy of the map taken for the evaluation, and scored by the
+ * unexplored cells in sensor range of the candidate per second of the path time under the exploration
+ * MotionCostModel.
+ */
+public class CandidateEvaluator {
+
+    private static final Logger LOGGER = Logger.getLogger(CandidateEvaluator.class.getName());
+
+    private static final LatencyHistogram EVALUATE_LATENCY = Metrics.histogram("planning.candidates");
+
+    // time of the alignment and sensing on arrival, so that the candidates next to the robot do not always win
+    public static final double ARRIVAL_MS = 1000;
+    // the robot sees the cells within its edge and the short range sensors
+    private static final int SENSE_RADIUS = 1 + RobotConstants.SHORT_MAX;
+
+    private final Map exploredMap;
+    private final MotionCompiler compiler = new MotionCompiler(MotionCostModel.exploration());
+
+    public CandidateEvaluator(Map exploredMap) {
+        this.exploredMap = exploredMap;
+    }
+
+    /**
+     * @param botLoc position of the robot
+     * @param dir direction of the robot
+     * @param candidates cells to choose from, the first one being the default
+     * @return candidate with the most new cells per second, the first one if none is expected to see a new cell,
+     * null if none is reachable
+     */
+    public Cell choose(Point botLoc, Direction dir, List<Cell> candidates) {
+        long startNanos = System.nanoTime();
+        double[] pathMs = new double[candidates.size()];
+        // the planners only read the copy, which nothing else writes
+        Map snapshot = exploredMap.copy();
+        ForkJoinPool.commonPool().invoke(new EvaluateTask(snapshot, botLoc, dir, candidates, pathMs, 0,
+                candidates.size()));
+
+        Cell best = null;
+        Cell firstReachable = null;
+        double bestScore = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (Double.isInfinite(pathMs[i])) {
+                continue;
+            }
+            Cell cell = candidates.get(i);
+            if (firstReachable == null) {
+                firstReachable = cell;
+            }
+            int newCells = countUnexplored(cell.getPos());
+            double score = newCells * 1000 / (pathMs[i] + ARRIVAL_MS);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(String.format("Candidate %s: %.0f ms, %d new cells, score %.2f", cell.getPos(), pathMs[i],
+                        newCells, score));
+            }
+            if (score > bestScore) {
+                best = cell;
+                bestScore = score;
+            }
+        }
+        EVALUATE_LATENCY.recordSince(startNanos);
+        return best != null ? best : firstReachable;
+    }
+
+    /**
+     * Plan to the candidates [lo, hi), one per task
+     */
+    private class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Map snapshot;
+        private final Point botLoc;
+        private final Direction dir;
+        private final List<Cell> candidates;
+        private final double[] pathMs;
+        private final int lo;
+        private final int hi;
+
+        EvaluateTask(Map snapshot, Point botLoc, Direction dir, List<Cell> candidates, double[] pathMs, int lo,
+                     int hi) {
+            this.snapshot = snapshot;
+            this.botLoc = botLoc;
+            this.dir = dir;
+            this.candidates = candidates;
+            this.pathMs = pathMs;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new EvaluateTask(snapshot, botLoc, dir, candidates, pathMs, lo, mid),
+                        new EvaluateTask(snapshot, botLoc, dir, candidates, pathMs, mid, hi));
+                return;
+            }
+            for (int i = lo; i < hi; i++) {
+                pathMs[i] = getPathMs(snapshot, botLoc, dir, candidates.get(i).getPos());
+            }
+        }
+    }
+
+    /**
+     * @return time to go from botLoc to goal on map, infinite if there is no path
+     */
+    private double getPathMs(Map map, Point botLoc, Direction dir, Point goal) {
+        BidirectionalPlanner planner = new BidirectionalPlanner(map);
+        ArrayList<Cell> path = planner.plan(botLoc, dir, Collections.singletonList(goal));
+        if (path == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return compiler.getCost(compiler.compile(botLoc, dir, path));
+    }
+
+    /**
+     * @return number of unexplored cells in sensor range of a robot at pos
+     */
+    private int countUnexplored(Point pos) {
+        int count = 0;
+        for (int row = pos.y - SENSE_RADIUS; row <= pos.y + SENSE_RADIUS; row++) {
+            for (int col = pos.x - SENSE_RADIUS; col <= pos.x + SENSE_RADIUS; col++) {
+                if (exploredMap.checkValidCell(row, col) && !exploredMap.isExplored(row, col)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,408 @@
+package Algorithm;
+
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+import Robot.RobotConstants;
+
+import java.awt.Point;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * All-pairs costs between the (cell, heading) states of a static map, e.g. the explored map after the exploration.
+ * The heading of a state is the direction of the last move into the cell, and moving costs MOVE_COST plus
+ * TURN_COST per 90 degree turn, as in FastestPath. The costs are computed once by a Dijkstra search from every
+ * state, in parallel on the common fork-join pool, and kept in a short[] (about 2.9MB for the 20x15 arena).
+ * A query is then a table lookup, and a path is rebuilt by walking back from the target in O(path length).
+ *
+ * The oracle is only valid for the layer version of the map it was built on, see isValidFor. The table grows with
+ * the square of the map size, so it is only built on maps of at most MAX_CELLS cells, see supports.
+ * get keeps one oracle per map, dropped with the map: the oracle only holds its map weakly.
+ */
+public class DistanceOracle implements PathPlanner {
+
+    private static final Logger LOGGER = Logger.getLogger(DistanceOracle.class.getName());
+
+    private static final LatencyHistogram BUILD_LATENCY = Metrics.histogram("planning.oracle.build");
+
+    public static final int UNREACHABLE = Short.MAX_VALUE;
+    // 4096 states, a 32MB table; a path visits each state at most once, so no cost can reach UNREACHABLE
+    public static final int MAX_CELLS = 1024;
+
+    private static final int HEADINGS = Direction.values().length;
+    // row and col increments of a move in each Direction (UP, LEFT, DOWN, RIGHT)
+    private static final int[] ROW_INC = {1, 0, -1, 0};
+    private static final int[] COL_INC = {0, -1, 0, 1};
+    // number of source cells searched by one fork-join task
+    private static final int TASK_CELLS = 8;
+
+    private static final WeakHashMap<Map, DistanceOracle> oracles = new WeakHashMap<Map, DistanceOracle>();
+
+    // weak, so that the oracle kept by get for the map does not keep the map
+    private final WeakReference<Map> map;
+    private final int version;
+    private final int height;
+    private final int width;
+    private final int cells;
+    private final int states;
+    private final boolean[] movable;
+    private final short[] cost;     // cost[from * states + to]
+
+    /**
+     * Build the oracle of the map as it is now
+     * @param map
+     */
+    public DistanceOracle(Map map) {
+        if (!supports(map)) {
+            throw new IllegalArgumentException(String.format("Map of %dx%d cells too large for a distance oracle",
+                    map.getHeight(), map.getWidth()));
+        }
+        long startNanos = System.nanoTime();
+        this.map = new WeakReference<Map>(map);
+        this.version = map.getLayerVersion();
+        this.height = map.getHeight();
+        this.width = map.getWidth();
+        this.cells = height * width;
+        this.states = cells * HEADINGS;
+        this.movable = new boolean[cells];
+        for (int cell = 0; cell < cells; cell++) {
+            movable[cell] = map.checkValidMove(cell / width, cell % width);
+        }
+        this.cost = new short[(int) ((long) states * states)];
+        ForkJoinPool.commonPool().invoke(new BuildTask(0, cells));
+        BUILD_LATENCY.recordSince(startNanos);
+        LOGGER.info(String.format("Distance oracle of %d states built in %.1f ms", states, (System.nanoTime() - startNanos) / 1e6));
+    }
+
+    /**
+     * @param map
+     * @return true if the map is small enough for an oracle, at most MAX_CELLS cells
+     */
+    public static boolean supports(Map map) {
+        return (long) map.getHeight() * map.getWidth() <= MAX_CELLS;
+    }
+
+    /**
+     * @param map map that the oracle supports
+     * @return oracle of the map, built again only if the map has changed since the last call for it
+     */
+    public static synchronized DistanceOracle get(Map map) {
+        DistanceOracle oracle = oracles.get(map);
+        if (oracle == null || !oracle.isValidFor(map)) {
+            oracle = new DistanceOracle(map);
+            oracles.put(map, oracle);
+        }
+        return oracle;
+    }
+
+    /**
+     * @param map
+     * @return true if the oracle was built on this map and the map has not changed since
+     */
+    public boolean isValidFor(Map map) {
+        return this.map.get() == map && version == map.getLayerVersion();
+    }
+
+    /**
+     * Dijkstra searches from all the headings of the source cells [lo, hi), split in tasks of TASK_CELLS cells
+     */
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+
+        BuildTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > TASK_CELLS) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new BuildTask(lo, mid), new BuildTask(mid, hi));
+                return;
+            }
+            // every state has at most HEADINGS incoming moves, so it is pushed at most HEADINGS times
+            long[] heap = new long[states * HEADINGS + 1];
+            for (int cell = lo; cell < hi; cell++) {
+                for (int heading = 0; heading < HEADINGS; heading++) {
+                    search(cell * HEADINGS + heading, heap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Dijkstra search from one state, writing the costs in its row of the table
+     */
+    private void search(int from, long[] heap) {
+        int base = from * states;
+        Arrays.fill(cost, base, base + states, (short) UNREACHABLE);
+        // the robot's own cell is always a source even if it is not a valid move, as in DistanceField
+        cost[base + from] = 0;
+        // min-heap of (cost << 32 | state)
+        int size = 0;
+        heap[size++] = from;
+        while (size > 0) {
+            long top = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size);
+            int state = (int) top;
+            int d = (int) (top >>> 32);
+            if (d > cost[base + state]) {
+                continue;
+            }
+            int heading = state % HEADINGS;
+            int cell = state / HEADINGS;
+            int row = cell / width;
+            int col = cell % width;
+            for (int dir = 0; dir < HEADINGS; dir++) {
+                int newRow = row + ROW_INC[dir];
+                int newCol = col + COL_INC[dir];
+                if (newRow < 0 || newCol < 0 || newCol >= width || newRow * width + newCol >= cells ||
+                        !movable[newRow * width + newCol]) {
+                    continue;
+                }
+                int next = (newRow * width + newCol) * HEADINGS + dir;
+                int newCost = d + getMoveCost(heading, dir);
+                if (newCost >= UNREACHABLE) {
+                    throw new IllegalStateException("Path cost " + newCost + " out of the range of the oracle");
+                }
+                if (newCost < cost[base + next]) {
+                    cost[base + next] = (short) newCost;
+                    heap[size] = ((long) newCost << 32) | next;
+                    siftUp(heap, size++);
+                }
+            }
+        }
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= v) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = v;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        if (size == 0) {
+            return;
+        }
+        long v = heap[0];
+        int i = 0;
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= v) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = v;
+    }
+
+    /**
+     * @return cost of a move in direction dir with heading heading
+     */
+    private static int getMoveCost(int heading, int dir) {
+        int turns = Math.abs(heading - dir);
+        if (turns == 3) {
+            turns = 1;
+        }
+        return RobotConstants.MOVE_COST + turns * RobotConstants.TURN_COST;
+    }
+
+    private int getState(Point pos, int heading) {
+        return (pos.y * width + pos.x) * HEADINGS + heading;
+    }
+
+    private boolean inMap(Point pos) {
+        return pos.y >= 0 && pos.x >= 0 && pos.y < height && pos.x < width;
+    }
+
+    /**
+     * @param from position of the robot
+     * @param dir direction of the robot
+     * @param to
+     * @param arrivalDir direction of the robot at to (direction of the last move)
+     * @return cost from (from, dir) to (to, arrivalDir), UNREACHABLE if there is no path
+     */
+    public int getCost(Point from, Direction dir, Point to, Direction arrivalDir) {
+        if (!inMap(from) || !inMap(to)) {
+            return UNREACHABLE;
+        }
+        return cost[getState(from, dir.ordinal()) * states + getState(to, arrivalDir.ordinal())];
+    }
+
+    /**
+     * @param from position of the robot
+     * @param dir direction of the robot
+     * @param to
+     * @return least cost from (from, dir) to to in any direction, 0 if from equals to, UNREACHABLE if there is no path
+     */
+    public int getCost(Point from, Direction dir, Point to) {
+        if (from.equals(to)) {
+            return 0;
+        }
+        if (!inMap(from) || !inMap(to)) {
+            return UNREACHABLE;
+        }
+        return cost[getState(from, dir.ordinal()) * states + getState(to, getBestArrival(from, dir, to))];
+    }
+
+    /**
+     * @return heading of the cheapest arrival at to
+     */
+    private int getBestArrival(Point from, Direction dir, Point to) {
+        if (!inMap(from) || !inMap(to)) {
+            return 0;
+        }
+        int base = getState(from, dir.ordinal()) * states;
+        int best = 0;
+        for (int heading = 1; heading < HEADINGS; heading++) {
+            if (cost[base + getState(to, heading)] < cost[base + getState(to, best)]) {
+                best = heading;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param from position of the robot
+     * @param dir direction of the robot
+     * @param to
+     * @return cells of the cheapest path after from, empty if from equals to, null if there is no path
+     */
+    public ArrayList<Cell> getPath(Point from, Direction dir, Point to) {
+        ArrayList<Cell> path = new ArrayList<Cell>();
+        if (from.equals(to)) {
+            return path;
+        }
+        if (getCost(from, dir, to) == UNREACHABLE) {
+            return null;
+        }
+        addPath(path, getState(from, dir.ordinal()), getState(to, getBestArrival(from, dir, to)));
+        return path;
+    }
+
+    /**
+     * Walk back from state to to state from, choosing at each step a previous state whose cost plus the move
+     * gives the cost of the current state, and add the cells from after from to to to the path
+     */
+    private void addPath(ArrayList<Cell> path, int from, int to) {
+        Map map = this.map.get();
+        if (map == null) {
+            throw new IllegalStateException("Map of the distance oracle no longer referenced");
+        }
+        int base = from * states;
+        int start = path.size();
+        int state = to;
+        while (state != from) {
+            int heading = state % HEADINGS;
+            int cell = state / HEADINGS;
+            path.add(map.getCell(cell / width, cell % width));
+            int prevCell = cell - ROW_INC[heading] * width - COL_INC[heading];
+            int prev = -1;
+            for (int h = 0; h < HEADINGS; h++) {
+                int candidate = prevCell * HEADINGS + h;
+                int c = cost[base + candidate];
+                if (c != UNREACHABLE && c + getMoveCost(h, heading) == cost[base + state]) {
+                    prev = candidate;
+                    break;
+                }
+            }
+            if (prev < 0) {
+                throw new IllegalStateException("Inconsistent distance oracle");
+            }
+            state = prev;
+        }
+        Collections.reverse(path.subList(start, path.size()));
+    }
+
+    /**
+     * Cheapest path through the waypoints: dynamic programming over the heading at each waypoint on the table,
+     * without any search.
+     */
+    @Override
+    public ArrayList<Cell> plan(Point start, Direction initDir, List<Point> waypoints) {
+        if (!inMap(start)) {
+            return null;
+        }
+        // points of the legs with a new position
+        ArrayList<Point> points = new ArrayList<Point>();
+        points.add(start);
+        for (Point wp : waypoints) {
+            if (!inMap(wp)) {
+                return null;
+            }
+            if (!wp.equals(points.get(points.size() - 1))) {
+                points.add(wp);
+            }
+        }
+        int legs = points.size() - 1;
+
+        // best[i][h]: least cost to be at points[i] with heading h, parent[i][h]: heading at points[i - 1]
+        long[][] best = new long[legs + 1][HEADINGS];
+        int[][] parent = new int[legs + 1][HEADINGS];
+        for (long[] row : best) {
+            Arrays.fill(row, Long.MAX_VALUE);
+        }
+        best[0][initDir.ordinal()] = 0;
+        for (int i = 1; i <= legs; i++) {
+            for (int h = 0; h < HEADINGS; h++) {
+                for (int prev = 0; prev < HEADINGS; prev++) {
+                    int c = cost[getState(points.get(i - 1), prev) * states + getState(points.get(i), h)];
+                    if (best[i - 1][prev] == Long.MAX_VALUE || c == UNREACHABLE) {
+                        continue;
+                    }
+                    if (best[i - 1][prev] + c < best[i][h]) {
+                        best[i][h] = best[i - 1][prev] + c;
+                        parent[i][h] = prev;
+                    }
+                }
+            }
+        }
+
+        int heading = 0;
+        for (int h = 1; h < HEADINGS; h++) {
+            if (best[legs][h] < best[legs][heading]) {
+                heading = h;
+            }
+        }
+        if (best[legs][heading] == Long.MAX_VALUE) {
+            LOGGER.warning(String.format("Cannot find a path from %s through %s, dir: %s", start, waypoints, initDir));
+            return null;
+        }
+        int[] headings = new int[legs + 1];
+        headings[legs] = heading;
+        for (int i = legs; i > 0; i--) {
+            headings[i - 1] = parent[i][headings[i]];
+        }
+        ArrayList<Cell> path = new ArrayList<Cell>();
+        for (int i = 1; i <= legs; i++) {
+            addPath(path, getState(points.get(i - 1), headings[i - 1]), getState(points.get(i), headings[i]));
+        }
+        return path;
+    }
+}
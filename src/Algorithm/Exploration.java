@@ -3,8 +3,10 @@ package Algorithm;
 import Map.Map;
 import Map.Cell;
 import Map.Direction;
+import Map.DistanceField;
 import Map.MapConstants;
 import Map.ObsSurface;
+import Map.SurfaceIndex;
 import Network.NetMgr;
 import Network.NetworkConstants;
 import Robot.Robot;
@@ -15,6 +17,9 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import Helper.*;
@@ -23,6 +28,13 @@ public class Exploration {
 
     private static final Logger LOGGER = Logger.getLogger(Exploration.class.getName());
 
+    private static final LatencyHistogram GO_TO_POINT_LATENCY = Metrics.histogram("exploration.goToPoint");
+
+    // time budget of the first path of goToPoint with the anytime planner, 0 to use FastestPath.runAStar
+    private static final long ANYTIME_BUDGET_MS = Long.getLong("mdp.anytime.budget", 0);
+    // plan the next frontier target while waiting for the sensor frames of an actual run, -Dmdp.speculate=false to disable
+    private static final boolean SPECULATE = !"false".equals(System.getProperty("mdp.speculate"));
+
     private Map exploredMap;
     private Map realMap;
     private Robot robot;
@@ -35,8 +47,11 @@ public class Exploration {
     private long endTime;
     private Point start;
 
+    private SpeculativePlanner speculative;     // null unless exploring in an actual run
+
     // for image
     HashMap<String, ObsSurface> notYetTaken;
+    SurfaceIndex surfaceIndex;      // notYetTaken bucketed by capture pose
 
     private int right_move = 0;     // checking for four consecutive right + forward move
 
@@ -78,7 +93,16 @@ public class Exploration {
 
 
     public void imageExploration(Point start) throws InterruptedException {
-        long imageStartTime = System.currentTimeMillis();
+        RunProfiler profiler = RunProfiler.begin("imageExploration");
+        try {
+            imageExplorationRun(start);
+        } finally {
+            RunProfiler.end(profiler);
+        }
+    }
+
+    private void imageExplorationRun(Point start) throws InterruptedException {
+        long imageStartTime = RunClock.currentTimeMillis();
         int exp_timing = explorationAllRightWallHug(start);
         HashMap<String, ObsSurface> allPossibleSurfaces;
 
@@ -89,7 +113,10 @@ public class Exploration {
         else {
             robot.setDoingImage(true);
             // algo for image
+            RunProfiler.enter(RunProfiler.Phase.PLANNING);
             notYetTaken = getUntakenSurfaces();
+            surfaceIndex = new SurfaceIndex(exploredMap, notYetTaken.values());
+            RunProfiler.exit();
             if (notYetTaken.size() == 0) {
                 return;
             }
@@ -111,8 +138,12 @@ public class Exploration {
         ObsSurface nearestObstacle;
         Cell nearestCell;
         boolean success;
-        nearestObstacle = exploredMap.nearestObsSurface(robot.getPos(), notYetTaken);
-        nearestCell = exploredMap.nearestMovable(nearestObstacle);
+        // shared distance field, only recomputed if the robot has moved or the map changed
+        RunProfiler.enter(RunProfiler.Phase.PLANNING);
+        DistanceField field = exploredMap.getDistanceField(robot.getPos());
+        nearestObstacle = exploredMap.nearestObsSurface(field, surfaceIndex);
+        nearestCell = exploredMap.nearestMovable(nearestObstacle, field);
+        RunProfiler.exit();
 
         if (nearestCell != null) {
             // go to nearest cell
@@ -124,7 +155,7 @@ public class Exploration {
                     updateNotYetTaken(surfTaken);
                     rightWallHug(doingImage);
                     // TODO
-                } while (!robot.getPos().equals(nearestCell.getPos()) && !robot.isRightHuggingWall());
+                } while (!robot.getPos().equals(nearestCell.getPos()) && !robot.isRightHuggingWall(exploredMap));
             }
             else {
                 removeFromNotYetTaken(nearestObstacle);
@@ -139,7 +170,7 @@ public class Exploration {
     private void updateNotYetTaken(ArrayList<ObsSurface> surfTaken) {
         for (ObsSurface obsSurface : surfTaken) {
             if (notYetTaken.containsKey(obsSurface.toString())) {
-                notYetTaken.remove(obsSurface.toString());
+                surfaceIndex.remove(notYetTaken.remove(obsSurface.toString()));
                 LOGGER.info("Remove from not yet taken: " + obsSurface);
             }
         }
@@ -147,6 +178,7 @@ public class Exploration {
 
     private void removeFromNotYetTaken(ObsSurface obsSurface) {
         notYetTaken.remove(obsSurface.toString());
+        surfaceIndex.remove(obsSurface);
         LOGGER.info("Remove from not yet taken: " + obsSurface.toString());
 
     }
@@ -246,24 +278,18 @@ public class Exploration {
         ObsSurface tempObsSurface;
         HashMap<Direction, Cell> tempNeighbours;
         HashMap<String, ObsSurface> allPossibleSurfaces = new HashMap<String, ObsSurface>();
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                tempCell = exploredMap.getCell(row, col);
-
-                if (tempCell.isObstacle()) {
-                    // check neighbouring
-                    tempNeighbours = exploredMap.getNeighboursMap(tempCell);
+        for (Cell obstacle : exploredMap.getObstacleCells()) {
+            tempCell = obstacle;
+            // check neighbouring
+            tempNeighbours = exploredMap.getNeighboursMap(tempCell);
 
-                    for (Direction neighbourDir: tempNeighbours.keySet()) {
-                        temp = tempNeighbours.get(neighbourDir);
+            for (Direction neighbourDir: tempNeighbours.keySet()) {
+                temp = tempNeighbours.get(neighbourDir);
 
-                        if (!temp.isObstacle()) {
-                            tempObsSurface = new ObsSurface(tempCell.getPos(), neighbourDir);
-                            allPossibleSurfaces.put(tempObsSurface.toString(), tempObsSurface);
-                        }
-                    }
+                if (!temp.isObstacle()) {
+                    tempObsSurface = new ObsSurface(tempCell.getPos(), neighbourDir);
+                    allPossibleSurfaces.put(tempObsSurface.toString(), tempObsSurface);
                 }
-
             }
         }
         System.out.println();
@@ -285,9 +311,22 @@ public class Exploration {
 
     //TODO clean this
     public int explorationAllRightWallHug(Point start) throws InterruptedException {
+        RunProfiler profiler = RunProfiler.begin("explorationAllRightWallHug");
+        boolean speculating = startSpeculating();
+        try {
+            return explorationAllRightWallHugRun(start);
+        } finally {
+            if (speculating) {
+                stopSpeculating();
+            }
+            RunProfiler.end(profiler);
+        }
+    }
+
+    private int explorationAllRightWallHugRun(Point start) throws InterruptedException {
         boolean doingImage = false;
         areaExplored = exploredMap.getExploredPercentage();
-        startTime = System.currentTimeMillis();
+        startTime = RunClock.currentTimeMillis();
         endTime = startTime + timeLimit;
         double prevArea = exploredMap.getExploredPercentage();
         int moves = 1;
@@ -301,6 +340,7 @@ public class Exploration {
             prevArea = areaExplored;
             if(areaExplored >= 100)
                 break;
+            armSpeculation(unexploredCheckDue(moves, checkingStep));
             try {
                 rightWallHug(doingImage);
 
@@ -318,6 +358,7 @@ public class Exploration {
             if (moves % checkingStep == 0 || right_move > 3 || (robot.getPos().distance(start)==0 && areaExplored < 100.00)) {      // prevent from keep turning right and forward
 //            if (moves % checkingStep == 0 || robot.getPos().distance(start)==0) {     // original
 //            if (moves % checkingStep == 0) {
+                armSpeculation(true);
                 do{
                     if (robot.getPos().equals(start)) {
                         goToPoint(start);
@@ -331,7 +372,8 @@ public class Exploration {
                 moves = 1;
                 checkingStep = RobotConstants.CHECKSTEPS;
             }
-        } while (areaExplored < coverageLimit && System.currentTimeMillis() < endTime);
+        } while (areaExplored < coverageLimit && RunClock.currentTimeMillis() < endTime);
+        armSpeculation(false);
         if (sim) {  // for actual run, just let the timer run
             Main.SimulatorNew.displayTimer.stop();
         }
@@ -343,7 +385,7 @@ public class Exploration {
         robot.setImageCount(0);
         robot.imageRecognitionRight(exploredMap);
         goToPoint(start);   // orient the robot
-        endTime = System.currentTimeMillis();
+        endTime = RunClock.currentTimeMillis();
         int seconds = (int)((endTime - startTime)/1000%60);
         int minutes = (int)((endTime - startTime)/1000/60);
         int total_in_seconds = (int)((endTime - startTime)/1000);
@@ -354,8 +396,59 @@ public class Exploration {
 
     //TODO clean this
     public int exploration(Point start) throws InterruptedException {
+        RunProfiler profiler = RunProfiler.begin("exploration");
+        boolean speculating = startSpeculating();
+        try {
+            return explorationRun(start);
+        } finally {
+            if (speculating) {
+                stopSpeculating();
+            }
+            RunProfiler.end(profiler);
+        }
+    }
+
+    /**
+     * Plan the next frontier target during the waits for the sensor frames, in an actual run
+     * @return true if started, false if not an actual run or already started
+     */
+    private boolean startSpeculating() {
+        if (sim || !SPECULATE || speculative != null) {
+            return false;
+        }
+        speculative = new SpeculativePlanner(exploredMap);
+        robot.setFrameWaitListener(speculative);
+        return true;
+    }
+
+    /**
+     * @param armed true if goToUnexplored may be called after the next sensor frames
+     */
+    private void armSpeculation(boolean armed) {
+        if (speculative != null) {
+            speculative.setArmed(armed);
+        }
+    }
+
+    /**
+     * @param moves wall hugging steps without new cells, as counted by the exploration loop
+     * @param checkingStep
+     * @return true if the checks after the next wall hugging step may call goToUnexplored: a step without new
+     * cells would be the checkingStep-th, a right turn would be the fourth in a row, or the step may end at the start
+     */
+    private boolean unexploredCheckDue(int moves, int checkingStep) {
+        return (moves + 1) % checkingStep == 0 || right_move >= 3 || robot.getPos().distance(start) <= 1;
+    }
+
+    private void stopSpeculating() {
+        robot.setFrameWaitListener(null);
+        speculative.cancel();
+        speculative = null;
+    }
+
+    private int explorationRun(Point start) throws InterruptedException {
         areaExplored = exploredMap.getExploredPercentage();
-        startTime = System.currentTimeMillis();
+        startTime = RunClock.currentTimeMillis();
         endTime = startTime + timeLimit;
         double prevArea = exploredMap.getExploredPercentage();
         int moves = 1;
@@ -369,6 +462,7 @@ public class Exploration {
             prevArea = areaExplored;
             if(areaExplored >= 100)
                 break;
+            armSpeculation(unexploredCheckDue(moves, checkingStep));
             try {
                 rightWallHug(false);
 
@@ -394,6 +488,7 @@ public class Exploration {
             if (moves % checkingStep == 0 || right_move > 3 || (robot.getPos().distance(start)==0 && areaExplored < 100.00)) {      // prevent from keep turning right and forward
 //            if (moves % checkingStep == 0 || robot.getPos().distance(start)==0) {     // original
 //            if (moves % checkingStep == 0) {
+                armSpeculation(true);
                 do{
                     if (robot.getPos().equals(start)) {
                         goToPoint(start);
@@ -411,12 +506,13 @@ public class Exploration {
                 moves = 1;
                 checkingStep = RobotConstants.CHECKSTEPS;
             }
-        } while (areaExplored < coverageLimit && System.currentTimeMillis() < endTime);
+        } while (areaExplored < coverageLimit && RunClock.currentTimeMillis() < endTime);
+        armSpeculation(false);
         if (sim) {  // for actual run, just let the timer run
             Main.SimulatorNew.displayTimer.stop();
         }
         goToPoint(start);
-        endTime = System.currentTimeMillis();
+        endTime = RunClock.currentTimeMillis();
         int seconds = (int)((endTime - startTime)/1000%60);
         int minutes = (int)((endTime - startTime)/1000/60);
         int total_in_seconds = (int)((endTime - startTime)/1000);
@@ -439,9 +535,20 @@ public class Exploration {
 //            TimeUnit.MILLISECONDS.sleep(500);
 //        }
 
-        Cell nearestUnexp = exploredMap.nearestUnexplored(robot.getPos());
-        LOGGER.info("Nearest unexplored: " + nearestUnexp);
-        Cell nearestExp = exploredMap.nearestExplored(nearestUnexp.getPos(), robot.getPos());
+        RunProfiler.enter(RunProfiler.Phase.PLANNING);
+        Cell nearestExp;
+        SpeculativePlanner.Decision decision = speculative != null ? speculative.take(robot) : null;
+        if (decision != null) {
+            // planned while waiting for the last sensor frame, the path is served to goToPoint by the cache
+            nearestExp = decision.getTarget();
+            if (nearestExp != null) {
+                PathCache.put(exploredMap, robot.getPos(), nearestExp.getPos(), robot.getDir(), decision.getPath());
+            }
+        }
+        else {
+            nearestExp = chooseUnexploredTarget(exploredMap, robot.getPos(), robot.getDir());
+        }
+        RunProfiler.exit();
         LOGGER.info("Nearest explored: " + nearestExp);
         if (nearestExp == null) {
             LOGGER.info("No nearest unexplored found.");
@@ -455,6 +562,27 @@ public class Exploration {
     }
 
 
+    /**
+     * @param map explored map
+     * @param botLoc position of the robot
+     * @param dir direction of the robot
+     * @return explored cell to go to in order to see the nearest unexplored cell, null if there is none
+     */
+    static Cell chooseUnexploredTarget(Map map, Point botLoc, Direction dir) {
+        Cell nearestUnexp = map.nearestUnexplored(botLoc);
+        LOGGER.log(Level.FINE, "Nearest unexplored: {0}", nearestUnexp);
+        if (nearestUnexp == null) {
+            return null;
+        }
+        if (RobotConstants.UNEXPLORED_CANDIDATES > 1) {
+            // the nearest explored cells are planned in parallel, going to the one seeing the most new cells per second
+            ArrayList<Cell> candidates = map.nearestExplored(nearestUnexp.getPos(), botLoc,
+                    RobotConstants.UNEXPLORED_CANDIDATES);
+            return new CandidateEvaluator(map).choose(botLoc, dir, candidates);
+        }
+        return map.nearestExplored(nearestUnexp.getPos(), botLoc);
+    }
+
     /**
      * Basic right wall hugging algo
      */
@@ -670,6 +798,78 @@ public class Exploration {
         }
     }
 
+    /**
+     * @param commands path commands
+     * @param from index of a FORWARD command, the next cell being movable
+     * @return number of consecutive FORWARD commands from index from, at most PIPELINE_DEPTH, whose cells are movable
+     */
+    private int pipelineBatch(ArrayList<Command> commands, int from) {
+        int rowInc = 0, colInc = 0;
+        switch (robot.getDir()) {
+            case UP:
+                rowInc = 1;
+                break;
+            case DOWN:
+                rowInc = -1;
+                break;
+            case LEFT:
+                colInc = -1;
+                break;
+            case RIGHT:
+                colInc = 1;
+                break;
+        }
+        int batch = 1;
+        while (batch < RobotConstants.PIPELINE_DEPTH && from + batch < commands.size() &&
+                commands.get(from + batch) == Command.FORWARD &&
+                exploredMap.checkValidMove(robot.getPos().y + rowInc * (batch + 1), robot.getPos().x + colInc * (batch + 1))) {
+            batch++;
+        }
+        return batch;
+    }
+
+    /**
+     * Move forward steps times with the commands sent ahead in one message, sensing after each step without
+     * alignment while moves are in flight; the last move is sensed with alignment and image capture, once the pipe
+     * is drained. If an obstacle shows up in front, the moves in flight are stopped: of the ones the Arduino made
+     * before the stop, only those still movable are applied, the others only have their readings consumed, and the
+     * remaining path is dropped.
+     * @param steps number of single forward moves, the first one being movable
+     * @return true if all the moves were made, false if they were stopped
+     */
+    private boolean moveForwardPipelined(int steps) throws InterruptedException {
+        robot.sendPipelined(Command.FORWARD, steps);
+        for (int i = 0; i < steps; i++) {
+            if (!movable(robot.getDir())) {
+                int made = robot.stopPipelined();
+                LOGGER.info(String.format("Obstacle on the pipelined path, stopped with %d moves made", made));
+                while (robot.getPipelined() > 0) {
+                    if (movable(robot.getDir())) {
+                        robot.move(Command.FORWARD, RobotConstants.MOVE_STEPS, exploredMap, stepPerSecond);
+                    }
+                    else {
+                        robot.skipPipelined();
+                    }
+                    if (robot.getPipelined() == 0) {
+                        robot.sense(exploredMap, realMap);
+                    }
+                    else {
+                        robot.senseWithoutAlign(exploredMap, realMap);
+                    }
+                }
+                return false;
+            }
+            robot.move(Command.FORWARD, RobotConstants.MOVE_STEPS, exploredMap, stepPerSecond);
+            if (robot.getPipelined() == 0) {
+                robot.sense(exploredMap, realMap);
+            }
+            else {
+                robot.senseWithoutAlign(exploredMap, realMap);
+            }
+        }
+        return true;
+    }
+
     /**
      * Move forward if movable
      * @param steps
@@ -726,8 +926,77 @@ public class Exploration {
         return exploredMap.checkValidMove(robot.getPos().y + rowInc, robot.getPos().x + colInc);
     }
 
+    /**
+     * @param fp
+     * @param pathStart position at which the path starts
+     * @param path better path from the anytime planner, positions after pathStart
+     * @param remaining commands left on the current path
+     * @return commands of the rest of the better path from the robot, null if the robot is not on it, one of its cells
+     * is no longer movable or it is not cheaper than the remaining commands
+     */
+    private ArrayList<Command> adoptPath(FastestPath fp, Point pathStart, ArrayList<Point> path,
+                                        List<Command> remaining) throws InterruptedException {
+        int from = 0;
+        if (!robot.getPos().equals(pathStart)) {
+            from = path.indexOf(robot.getPos()) + 1;
+            if (from == 0) {
+                return null;
+            }
+        }
+        List<Point> restPos = path.subList(from, path.size());
+        if (restPos.isEmpty() || getPathCost(robot.getPos(), robot.getDir(), restPos) >= getCommandsCost(remaining)) {
+            return null;
+        }
+        ArrayList<Cell> rest = new ArrayList<Cell>();
+        for (Point pos : restPos) {
+            if (!exploredMap.checkValidMove(pos.y, pos.x)) {
+                return null;
+            }
+            rest.add(exploredMap.getCell(pos));
+        }
+        ArrayList<Command> commands = fp.getPathCommands(rest);
+        LOGGER.info(String.format("Switching to the improved path, %d commands instead of %d", commands.size(),
+                remaining.size()));
+        return commands;
+    }
+
+    /**
+     * @return cost of the commands of getPathCommands along path from (pos, dir), without building them
+     */
+    private int getPathCost(Point pos, Direction dir, List<Point> path) {
+        int cost = 0;
+        for (Point next : path) {
+            Direction moveDir = exploredMap.getCellDir(pos, next);
+            int turns = Math.abs(moveDir.ordinal() - dir.ordinal());
+            if (turns == 3) {
+                turns = 1;
+            }
+            cost += turns * RobotConstants.TURN_COST + RobotConstants.MOVE_COST;
+            pos = next;
+            dir = moveDir;
+        }
+        return cost;
+    }
+
+    private static int getCommandsCost(List<Command> commands) {
+        int cost = 0;
+        for (Command c : commands) {
+            cost += c == Command.TURN_LEFT || c == Command.TURN_RIGHT ? RobotConstants.TURN_COST : RobotConstants.MOVE_COST;
+        }
+        return cost;
+    }
+
     // TODO clean this
     public boolean goToPoint(Point loc) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        try {
+            return goToPointRun(loc);
+        } finally {
+            GO_TO_POINT_LATENCY.recordSince(startNanos);
+        }
+    }
+
+    private boolean goToPointRun(Point loc) throws InterruptedException {
         robot.setStatus("Go to point: " + loc.toString());
         LOGGER.info(robot.getStatus());
         // TODO: now ignore robot already at start
@@ -762,10 +1031,37 @@ public class Exploration {
 //            return false;
         }
 
-        ArrayList<Command> commands = new ArrayList<Command>();
-        ArrayList<Cell> path = new ArrayList<Cell>();
+        ArrayList<Cell> path;
         FastestPath fp = new FastestPath(exploredMap, robot, sim);
-        path = fp.runAStar(robot.getPos(), loc, robot.getDir());
+        AnytimePlanner anytime = null;
+        // better paths found by the anytime planner while the robot moves, adopted at the next command
+        final AtomicReference<ArrayList<Point>> improved = new AtomicReference<ArrayList<Point>>();
+        Point pathStart = robot.getPos();
+        if (ANYTIME_BUDGET_MS > 0 && !loc.equals(start)) {
+            anytime = new AnytimePlanner(exploredMap, ANYTIME_BUDGET_MS);
+            path = anytime.start(pathStart, robot.getDir(), loc, (better, epsilon) -> improved.set(better));
+        }
+        else {
+            path = fp.runAStar(robot.getPos(), loc, robot.getDir());
+        }
+        try {
+            return followPath(loc, fp, path, anytime, improved, pathStart);
+        } finally {
+            if (anytime != null) {
+                anytime.cancel();
+            }
+        }
+    }
+
+    /**
+     * Follow the path to loc, switching to the better paths of the anytime planner if any
+     * @param anytime planner improving the path in the background, null if none
+     * @param improved last better path published by the planner, positions after pathStart
+     * @param pathStart position at which the path starts
+     */
+    private boolean followPath(Point loc, FastestPath fp, ArrayList<Cell> path, AnytimePlanner anytime,
+                               AtomicReference<ArrayList<Point>> improved, Point pathStart) throws InterruptedException {
+        ArrayList<Command> commands;
         if (path == null)
             return false;
         fp.displayFastestPath(path, true);
@@ -777,13 +1073,30 @@ public class Exploration {
         // TODO: temporarily disable
 //        if (true) {
         if (!loc.equals(start)) {
-            for (Command c : commands) {
+            for (int i = 0; i < commands.size(); i++) {
+                ArrayList<Point> better = anytime != null ? improved.getAndSet(null) : null;
+                if (better != null) {
+                    ArrayList<Command> rest = adoptPath(fp, pathStart, better, commands.subList(i, commands.size()));
+                    if (rest != null) {
+                        commands = rest;
+                        i = 0;
+                    }
+                }
+                Command c = commands.get(i);
                 System.out.println("Command: "+c);
+                int batch = c == Command.FORWARD && !sim ? pipelineBatch(commands, i) : 1;
                 if ((c == Command.FORWARD) && !movable(robot.getDir())) {
                     System.out.println("Not Executing Forward Not Movable");
                     // TODO
                     goToPoint(loc);
                     break;
+                } else if (batch > 1) {
+                    // the forward moves through explored cells are sent ahead to hide the round trip of each step
+                    if (!moveForwardPipelined(batch)) {
+                        goToPoint(loc);
+                        break;
+                    }
+                    i += batch - 1;
                 } else{
                     if(((c == Command.TURN_LEFT && !movable(Direction.getAntiClockwise(robot.getDir())))||
                             (c == Command.TURN_RIGHT && !movable(Direction.getClockwise(robot.getDir())))) && commands.indexOf(c) == commands.size()-1)
@@ -880,11 +1193,14 @@ public class Exploration {
                                 robot.getSensorRes().get("F2") == 1 ||
                                 robot.getSensorRes().get("F3") == 1)
                     ) {
+                    // update map (sensorRes is updated)
+                    robot.updateMap(exploredMap, realMap, robot.getSensorRes());
+                }
+                // the reading may be outvoted by the occupancy of the cells ahead, the path is then still valid
+                if ((c == Command.FORWARD) && !movable(robot.getDir())) {
 
                 // System.out.println("moves "+moves);
                     System.out.println("Not Executing Forward Not Movable");
-                    // update map (sensorRes is updated)
-                    robot.updateMap(exploredMap, realMap, robot.getSensorRes());
                     goToPoint(loc);
                     break;
                 } else {
@@ -969,6 +1285,7 @@ public class Exploration {
     // TODO: clean this
     //Returns the direction to the nearest virtual wall
     public Direction nearestVirtualWall(Point pos) {
+        DistanceField field = exploredMap.getDistanceField(pos);
         int rowInc, colInc, lowest = 1000, lowestIter = 0, curDist = 0;
         //Distance to wall Evaluation order: right, up, left, down
         Direction dir = Direction.RIGHT;
@@ -978,10 +1295,10 @@ public class Exploration {
             rowInc = (int)Math.sin(Math.PI/2*i);
             colInc = (int)Math.cos(Math.PI/2*i);
             curDist = 0;
-            for (int j = 1; j < MapConstants.MAP_HEIGHT; j++) {
+            for (int j = 1; j < Math.max(exploredMap.getHeight(), exploredMap.getWidth()); j++) {
                 if(exploredMap.checkValidCell(pos.y+rowInc*j, pos.x+colInc*j)) {
-                    //Keep Looping till reached a virtual wall
-                    if(exploredMap.clearForRobot(pos.y+rowInc*j, pos.x+colInc*j))
+                    //Keep Looping till reached a virtual wall (any cell the robot cannot reach)
+                    if(field.isReachable(pos.y+rowInc*j, pos.x+colInc*j))
                         curDist++;
                     else
                         break;
@@ -4,8 +4,14 @@ import java.awt.Point;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import Helper.FlightEvents;
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+import Helper.RunProfiler;
 import Map.*;
 import Robot.Robot;
 import Robot.Command;
@@ -13,15 +19,20 @@ import Robot.RobotConstants;
 
 import static java.lang.Math.*;
 
-public class FastestPath {
+public class FastestPath implements PathPlanner {
 
     private static final Logger LOGGER = Logger.getLogger(FastestPath.class.getName());
 
+    private static final LatencyHistogram ASTAR_LATENCY = Metrics.histogram("planning.astar");
+    // steps per second of the temporary robot of getPathCommands, so that it does not sleep
+    private static final int NO_MOTION_DELAY = Integer.MAX_VALUE;
+
     private boolean sim;
     private Map exploredMap;
     private Robot robot;
     private HashMap<Point, Double> costGMap;
     private HashMap<Cell, Cell> prevCellMap = new HashMap<Cell, Cell>();
+    private int expansions;
 
     public FastestPath(Map exploredMap, Robot robot, boolean sim) {
         this.exploredMap = exploredMap;
@@ -32,8 +43,8 @@ public class FastestPath {
 
     public void initCostMap() {
         costGMap = new HashMap<Point, Double>();
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row ++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col ++) {
+        for (int row = 0; row < exploredMap.getHeight(); row ++) {
+            for (int col = 0; col < exploredMap.getWidth(); col ++) {
                 Cell cell = exploredMap.getCell(row, col);
                 if (cell.movableCell()) {
                     costGMap.put(cell.getPos(), 0.0);
@@ -46,6 +57,67 @@ public class FastestPath {
     }
 
     public ArrayList<Cell> runAStar(Point start, Point goal, Direction initDir) {
+        return runAStar(start, goal, initDir, true);
+    }
+
+    /**
+     * @param useCache false to search without looking up or filling PathCache, e.g. on a copy of the map
+     */
+    ArrayList<Cell> runAStar(Point start, Point goal, Direction initDir, boolean useCache) {
+        RunProfiler.enter(RunProfiler.Phase.PLANNING);
+        FlightEvents.AStarEvent event = FlightEvents.beginAStar();
+        long startNanos = System.nanoTime();
+        ArrayList<Cell> path = null;
+        try {
+            // repeated queries on an unchanged map, e.g. going back to the same point, are answered by the cache
+            if (useCache) {
+                ArrayList<Cell> cached = PathCache.lookup(exploredMap, start, goal, initDir);
+                if (cached != PathCache.MISS) {
+                    expansions = 0;
+                    path = cached;
+                    return path;
+                }
+            }
+            path = aStar(start, goal, initDir);
+            if (useCache) {
+                PathCache.put(exploredMap, start, goal, initDir, path);
+            }
+            return path;
+        } finally {
+            ASTAR_LATENCY.recordSince(startNanos);
+            FlightEvents.endAStar(event, start, goal, expansions, path == null ? -1 : path.size());
+            RunProfiler.exit();
+        }
+    }
+
+    /**
+     * Chain one A* search per waypoint, each starting in the direction the robot arrives at the previous waypoint.
+     * Each leg is optimal on its own; WaypointPlanner finds the optimal path through all the waypoints at once.
+     */
+    @Override
+    public ArrayList<Cell> plan(Point start, Direction initDir, List<Point> waypoints) {
+        ArrayList<Cell> path = new ArrayList<Cell>();
+        Point from = start;
+        Direction dir = initDir;
+        for (Point wp : waypoints) {
+            if (wp.equals(from)) {
+                continue;
+            }
+            initCostMap();
+            prevCellMap.clear();
+            ArrayList<Cell> leg = runAStar(from, wp, dir);
+            if (leg == null) {
+                return null;
+            }
+            Point last = leg.size() > 1 ? leg.get(leg.size() - 2).getPos() : from;
+            dir = exploredMap.getCellDir(last, wp);
+            path.addAll(leg);
+            from = wp;
+        }
+        return path;
+    }
+
+    private ArrayList<Cell> aStar(Point start, Point goal, Direction initDir) {
         ArrayList<Cell> toVisit = new ArrayList<Cell>();
         ArrayList<Cell> visited = new ArrayList<Cell>();
         ArrayList<Cell> neighbours;
@@ -58,9 +130,11 @@ public class FastestPath {
         Cell cur = exploredMap.getCell(start);
         toVisit.add(cur);
         Direction curDir = initDir;
+        expansions = 0;
 
         while(!toVisit.isEmpty()) {
             cur = getMinCostCell(toVisit, goal);
+            expansions++;
             if (prevCellMap.containsKey(cur)) {
                 curDir = exploredMap.getCellDir(prevCellMap.get(cur).getPos(), cur.getPos());
             }
@@ -106,12 +180,14 @@ public class FastestPath {
         Cell cur = exploredMap.getCell(goal);
         Cell startCell = exploredMap.getCell(start);
         ArrayList<Cell> path = new ArrayList<Cell>();
-        while(cur != startCell) {
+        while(!cur.equals(startCell)) {
             path.add(cur);
             cur = prevCellMap.get(cur);
         }
         Collections.reverse(path);
-        System.out.println(path);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(path.toString());
+        }
         return path;
     }
 
@@ -122,25 +198,29 @@ public class FastestPath {
      */
     public void displayFastestPath(ArrayList<Cell> path, boolean display) {
         Cell temp;
-        System.out.println("Path:");
         for(int i = 0; i < path.size(); i++) {
             temp = path.get(i);
             //Set the path cells to display as path on the Sim
             exploredMap.getCell(temp.getPos()).setPath(display);
-            System.out.println(exploredMap.getCell(temp.getPos()).toString());
+        }
 
-            //Output Path on console
-            if(i != (path.size()-1))
-                System.out.print("(" + temp.getPos().y + ", " + temp.getPos().x + ") --> ");
-            else
-                System.out.print("(" + temp.getPos().y + ", " + temp.getPos().x + ")");
+        //Output Path on the log, only built when it is read
+        if (LOGGER.isLoggable(Level.FINE)) {
+            StringBuilder sb = new StringBuilder("Path: ");
+            for(int i = 0; i < path.size(); i++) {
+                temp = path.get(i);
+                if (i != 0)
+                    sb.append(" --> ");
+                sb.append('(').append(temp.getPos().y).append(", ").append(temp.getPos().x).append(')');
+            }
+            LOGGER.fine(sb.toString());
         }
-        System.out.println("\n");
     }
 
     //Returns the movements required to execute the path
     //TODO modify?
     public ArrayList<Command> getPathCommands(ArrayList<Cell> path) throws InterruptedException {
+        RunProfiler.enter(RunProfiler.Phase.PLANNING);
         Robot tempRobot = new Robot(true, true, robot.getPos().y, robot.getPos().x, robot.getDir());
         ArrayList<Command> moves = new ArrayList<Command>();
 
@@ -158,30 +238,31 @@ public class FastestPath {
 //                // 1. use backwards
 //                move = Command.BACKWARD;
                 move = Command.TURN_LEFT; //first move
-                tempRobot.turn(move, RobotConstants.STEP_PER_SECOND);
+                tempRobot.turn(move, NO_MOTION_DELAY);
                 moves.add(move);
-                tempRobot.turn(move, RobotConstants.STEP_PER_SECOND);
+                tempRobot.turn(move, NO_MOTION_DELAY);
                 moves.add(move);
                 move = Command.FORWARD; //second move
 
             } else if (Direction.getClockwise(tempRobot.getDir()) == cellDir) {
                 move = Command.TURN_RIGHT; //first move
-                tempRobot.turn(move, RobotConstants.STEP_PER_SECOND);
+                tempRobot.turn(move, NO_MOTION_DELAY);
                 moves.add(move); //second move
                 move = Command.FORWARD;
             } else if (Direction.getAntiClockwise(tempRobot.getDir()) == cellDir) {
                 move = Command.TURN_LEFT; //first move
-                tempRobot.turn(move, RobotConstants.STEP_PER_SECOND);
+                tempRobot.turn(move, NO_MOTION_DELAY);
                 moves.add(move);
                 move = Command.FORWARD; //second move
             } else {
                 move = Command.FORWARD;
             }
-            tempRobot.move(move, RobotConstants.MOVE_STEPS, exploredMap, RobotConstants.STEP_PER_SECOND);
+            tempRobot.move(move, RobotConstants.MOVE_STEPS, exploredMap, NO_MOTION_DELAY);
             moves.add(move);
             cell = newCell;
         }
         System.out.println("Generated Moves: " + moves.toString());
+        RunProfiler.exit();
         return moves;
     }
 
@@ -0,0 +1,317 @@
+package Algorithm;
+
+import Map.Cell;
+import Map.Direction;
+import Robot.Command;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compile a path of cells into the sequence of motion primitives taking the least time under a MotionCostModel:
+ * forward or fast forward runs split into commands of at most maxRun steps, backward runs instead of a
+ * 180 degree turn, and the turns in place between the runs.
+ *
+ * The path is cut into straight runs; the robot goes through each run either facing it (forward) or facing away
+ * from it (backward). Dynamic programming over the heading of the robot after each run gives the cheapest
+ * combination of turns and runs, and the cheapest split of each run into commands.
+ */
+public class MotionCompiler {
+
+    private static final Logger LOGGER = Logger.getLogger(MotionCompiler.class.getName());
+
+    private static final int HEADINGS = Direction.values().length;
+
+    /**
+     * One command to the Arduino: a move of steps cells or a 90 degree turn (steps = 1)
+     */
+    public static class Motion {
+        private final Command cmd;
+        private final int steps;
+
+        public Motion(Command cmd, int steps) {
+            this.cmd = cmd;
+            this.steps = steps;
+        }
+
+        public Command getCmd() {
+            return cmd;
+        }
+
+        public int getSteps() {
+            return steps;
+        }
+
+        @Override
+        public String toString() {
+            return cmd + "x" + steps;
+        }
+    }
+
+    private final MotionCostModel model;
+
+    public MotionCompiler(MotionCostModel model) {
+        this.model = model;
+    }
+
+    public MotionCostModel getModel() {
+        return model;
+    }
+
+    /**
+     * @param start position of the robot
+     * @param dir direction of the robot
+     * @param path cells to go through, as returned by FastestPath.runAStar
+     * @return motion primitives following the path
+     */
+    public ArrayList<Motion> compile(Point start, Direction dir, ArrayList<Cell> path) {
+        ArrayList<Direction> steps = new ArrayList<Direction>();
+        Point pos = start;
+        for (Cell cell : path) {
+            Point next = cell.getPos();
+            if (next.equals(pos)) {
+                continue;
+            }
+            if (Math.abs(next.x - pos.x) + Math.abs(next.y - pos.y) != 1) {
+                throw new IllegalArgumentException(String.format("Path is not continuous from %s to %s", pos, next));
+            }
+            steps.add(next.y > pos.y ? Direction.UP : next.y < pos.y ? Direction.DOWN :
+                    next.x < pos.x ? Direction.LEFT : Direction.RIGHT);
+            pos = next;
+        }
+        return compileSteps(dir, steps);
+    }
+
+    /**
+     * @param dir direction of the robot
+     * @param commands unit commands (FORWARD, BACKWARD, TURN_LEFT, TURN_RIGHT), e.g. from FastestPath.getPathCommands
+     * @return motion primitives making the same moves
+     */
+    public ArrayList<Motion> compileCommands(Direction dir, ArrayList<Command> commands) {
+        ArrayList<Direction> steps = new ArrayList<Direction>();
+        Direction heading = dir;
+        for (Command c : commands) {
+            switch (c) {
+                case TURN_LEFT:
+                    heading = Direction.getAntiClockwise(heading);
+                    break;
+                case TURN_RIGHT:
+                    heading = Direction.getClockwise(heading);
+                    break;
+                case FORWARD:
+                    steps.add(heading);
+                    break;
+                case BACKWARD:
+                    steps.add(Direction.getOpposite(heading));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return compileSteps(dir, steps);
+    }
+
+    /**
+     * @param dir direction of the robot
+     * @param steps direction of each single cell move
+     * @return motion primitives making the moves, with the least total cost
+     */
+    public ArrayList<Motion> compileSteps(Direction dir, ArrayList<Direction> steps) {
+        ArrayList<Motion> motions = new ArrayList<Motion>();
+        if (steps.isEmpty()) {
+            return motions;
+        }
+
+        // straight runs of the path
+        ArrayList<Direction> runDirs = new ArrayList<Direction>();
+        ArrayList<Integer> runLengths = new ArrayList<Integer>();
+        for (Direction step : steps) {
+            int last = runDirs.size() - 1;
+            if (last >= 0 && runDirs.get(last) == step) {
+                runLengths.set(last, runLengths.get(last) + 1);
+            }
+            else {
+                runDirs.add(step);
+                runLengths.add(1);
+            }
+        }
+
+        int maxLength = 0;
+        for (int length : runLengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        RunSplit forwardSplit = new RunSplit(maxLength, false);
+        RunSplit reverseSplit = model.isAllowReverse() ? new RunSplit(maxLength, true) : null;
+
+        // cost[h]: least cost to be at the end of the runs so far with heading h
+        int runs = runDirs.size();
+        double[] cost = new double[HEADINGS];
+        int[][] parent = new int[runs][HEADINGS];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        cost[dir.ordinal()] = 0;
+        for (int k = 0; k < runs; k++) {
+            double[] next = new double[HEADINGS];
+            Arrays.fill(next, Double.POSITIVE_INFINITY);
+            Direction runDir = runDirs.get(k);
+            int length = runLengths.get(k);
+            for (int reverse = 0; reverse < (reverseSplit != null ? 2 : 1); reverse++) {
+                int heading = (reverse == 0 ? runDir : Direction.getOpposite(runDir)).ordinal();
+                double runCost = (reverse == 0 ? forwardSplit : reverseSplit).cost[length];
+                for (int h = 0; h < HEADINGS; h++) {
+                    double total = cost[h] + turnCount(h, heading) * model.getTurnCost() + runCost;
+                    if (total < next[heading]) {
+                        next[heading] = total;
+                        parent[k][heading] = h;
+                    }
+                }
+            }
+            cost = next;
+        }
+
+        // cheapest final heading, going back through the runs
+        int heading = runDirs.get(runs - 1).ordinal();
+        for (int h = 0; h < HEADINGS; h++) {
+            if (cost[h] < cost[heading]) {
+                heading = h;
+            }
+        }
+        int[] headings = new int[runs + 1];
+        headings[runs] = heading;
+        for (int k = runs - 1; k >= 0; k--) {
+            headings[k] = parent[k][headings[k + 1]];
+        }
+
+        for (int k = 0; k < runs; k++) {
+            addTurns(motions, headings[k], headings[k + 1]);
+            boolean reverse = headings[k + 1] != runDirs.get(k).ordinal();
+            (reverse ? reverseSplit : forwardSplit).addMoves(motions, runLengths.get(k));
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format("Compiled %d steps into %d motions", steps.size(), motions.size()));
+        }
+        return motions;
+    }
+
+    /**
+     * Cheapest split of the runs of each length into move commands, forward or backward
+     */
+    private class RunSplit {
+        private final boolean reverse;
+        private final double[] cost;
+        private final int[] firstSteps;
+        private final boolean[] firstFast;
+
+        RunSplit(int maxLength, boolean reverse) {
+            this.reverse = reverse;
+            cost = new double[maxLength + 1];
+            firstSteps = new int[maxLength + 1];
+            firstFast = new boolean[maxLength + 1];
+            for (int length = 1; length <= maxLength; length++) {
+                cost[length] = Double.POSITIVE_INFINITY;
+                for (int s = 1; s <= Math.min(length, model.getMaxRun()); s++) {
+                    for (int fast = 0; fast < (model.isAllowFast() ? 2 : 1); fast++) {
+                        double total = model.getMoveCost(s, reverse, fast == 1) + cost[length - s];
+                        if (total < cost[length]) {
+                            cost[length] = total;
+                            firstSteps[length] = s;
+                            firstFast[length] = fast == 1;
+                        }
+                    }
+                }
+            }
+        }
+
+        void addMoves(ArrayList<Motion> motions, int length) {
+            while (length > 0) {
+                Command cmd = firstFast[length] ? (reverse ? Command.FAST_BACKWARD : Command.FAST_FORWARD) :
+                        (reverse ? Command.BACKWARD : Command.FORWARD);
+                motions.add(new Motion(cmd, firstSteps[length]));
+                length -= firstSteps[length];
+            }
+        }
+    }
+
+    /**
+     * @return number of 90 degree turns from heading from to heading to
+     */
+    private static int turnCount(int from, int to) {
+        int diff = (to - from + HEADINGS) % HEADINGS;
+        return diff == 3 ? 1 : diff;
+    }
+
+    /**
+     * Add the turns from heading from to heading to, a 180 degree turn being two left turns as in getPathCommands
+     */
+    private static void addTurns(ArrayList<Motion> motions, int from, int to) {
+        // Direction is ordered anti-clockwise
+        int diff = (to - from + HEADINGS) % HEADINGS;
+        if (diff == 3) {
+            motions.add(new Motion(Command.TURN_RIGHT, 1));
+        }
+        else {
+            for (int i = 0; i < diff; i++) {
+                motions.add(new Motion(Command.TURN_LEFT, 1));
+            }
+        }
+    }
+
+    /**
+     * @param motions
+     * @return total cost of the motions under the model
+     */
+    public double getCost(ArrayList<Motion> motions) {
+        double total = 0;
+        for (Motion m : motions) {
+            switch (m.getCmd()) {
+                case TURN_LEFT:
+                case TURN_RIGHT:
+                    total += model.getTurnCost();
+                    break;
+                default:
+                    total += model.getMoveCost(m.getSteps(),
+                            m.getCmd() == Command.BACKWARD || m.getCmd() == Command.FAST_BACKWARD,
+                            m.getCmd() == Command.FAST_FORWARD || m.getCmd() == Command.FAST_BACKWARD);
+                    break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param motions
+     * @return Arduino command string of the motions, e.g. "F12|A1|W2|"
+     */
+    public static String toCommandString(ArrayList<Motion> motions) {
+        StringBuilder cmdBuilder = new StringBuilder();
+        for (Motion m : motions) {
+            cmdBuilder.append(Command.ArduinoMove.values()[m.getCmd().ordinal()]);
+            cmdBuilder.append(m.getSteps());
+            cmdBuilder.append('|');
+        }
+        return cmdBuilder.toString();
+    }
+
+    /**
+     * @param motions
+     * @return the motions as unit commands (FORWARD, BACKWARD, TURN_LEFT, TURN_RIGHT) for a robot moving step by step
+     */
+    public static ArrayList<Command> toCommands(ArrayList<Motion> motions) {
+        ArrayList<Command> commands = new ArrayList<Command>();
+        for (Motion m : motions) {
+            Command cmd = m.getCmd();
+            if (cmd == Command.FAST_FORWARD) {
+                cmd = Command.FORWARD;
+            }
+            else if (cmd == Command.FAST_BACKWARD) {
+                cmd = Command.BACKWARD;
+            }
+            for (int i = 0; i < m.getSteps(); i++) {
+                commands.add(cmd);
+            }
+        }
+        return commands;
+    }
+}
@@ -0,0 +1,112 @@
+package Algorithm;
+
+import Robot.RobotConstants;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Time taken by the robot to execute the motion primitives, used by MotionCompiler to choose between them.
+ * Every command costs commandMs (serial message, acceleration and braking) on top of its motion time.
+ *
+ * Keys of a JSON model: commandMs, moveMsPerStep, reverseMsPerStep, turnMs, fastCommandMs, fastMsPerStep, maxRun,
+ * allowReverse, allowFast. Backward and fast moves are only used when a model enables them, as the timings of the
+ * defaults are not measured on the robot.
+ */
+public class MotionCostModel {
+
+    private double commandMs = 150;
+    private double moveMsPerStep = 100;
+    private double reverseMsPerStep = 130;
+    private double turnMs = 400;
+
+    // FAST_FORWARD / FAST_BACKWARD: longer acceleration for a higher cruising speed
+    private double fastCommandMs = 450;
+    private double fastMsPerStep = 50;
+
+    // max number of steps of one move command
+    private int maxRun = RobotConstants.MAX_MOVE;
+    private boolean allowReverse = false;
+    private boolean allowFast = false;
+
+    public static MotionCostModel defaults() {
+        return new MotionCostModel();
+    }
+
+    /**
+     * @return model for exploration: one step per command so that the robot senses after every step, forward only
+     */
+    public static MotionCostModel exploration() {
+        MotionCostModel model = new MotionCostModel();
+        model.maxRun = RobotConstants.MOVE_STEPS;
+        return model;
+    }
+
+    /**
+     * @param filename JSON model
+     * @return model with the values of the file, the defaults for the missing keys
+     * @throws IOException
+     */
+    public static MotionCostModel load(String filename) throws IOException {
+        FileReader reader = new FileReader(filename);
+        JSONObject json;
+        try {
+            json = new JSONObject(new JSONTokener(reader));
+        } finally {
+            reader.close();
+        }
+        MotionCostModel model = new MotionCostModel();
+        model.commandMs = json.optDouble("commandMs", model.commandMs);
+        model.moveMsPerStep = json.optDouble("moveMsPerStep", model.moveMsPerStep);
+        model.reverseMsPerStep = json.optDouble("reverseMsPerStep", model.reverseMsPerStep);
+        model.turnMs = json.optDouble("turnMs", model.turnMs);
+        model.fastCommandMs = json.optDouble("fastCommandMs", model.fastCommandMs);
+        model.fastMsPerStep = json.optDouble("fastMsPerStep", model.fastMsPerStep);
+        model.maxRun = Math.max(1, json.optInt("maxRun", model.maxRun));
+        model.allowReverse = json.optBoolean("allowReverse", model.allowReverse);
+        model.allowFast = json.optBoolean("allowFast", model.allowFast);
+        return model;
+    }
+
+    /**
+     * @param steps number of steps of the move
+     * @param reverse true for a backward move
+     * @param fast true for a fast move
+     * @return time of one move command
+     */
+    public double getMoveCost(int steps, boolean reverse, boolean fast) {
+        if (fast) {
+            return fastCommandMs + steps * fastMsPerStep;
+        }
+        return commandMs + steps * (reverse ? reverseMsPerStep : moveMsPerStep);
+    }
+
+    /**
+     * @return time of one 90 degree turn command
+     */
+    public double getTurnCost() {
+        return commandMs + turnMs;
+    }
+
+    public int getMaxRun() {
+        return maxRun;
+    }
+
+    public boolean isAllowReverse() {
+        return allowReverse;
+    }
+
+    public boolean isAllowFast() {
+        return allowFast;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("command=%.0fms move=%.0fms/step reverse=%.0fms/step turn=%.0fms fast=%.0fms+%.0fms/step " +
+                        "maxRun=%d reverse=%b fast=%b", commandMs, moveMsPerStep, reverseMsPerStep, turnMs, fastCommandMs,
+                fastMsPerStep, maxRun, allowReverse, allowFast);
+    }
+}
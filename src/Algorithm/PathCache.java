@@ -0,0 +1,134 @@
+package Algorithm;
+
+import Helper.Counter;
+import Helper.Metrics;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.WeakHashMap;
+
+/**
+ * LRU caches of the paths found by FastestPath.runAStar, keyed by (start, goal, initial direction), one per map at
+ * its current layer version. Any change of the explored, obstacle or virtual wall layer changes the version, which
+ * clears the cache of the map on the next lookup, so a cached path is always the one A* would find again.
+ * Queries without a path are cached too. The caches only hold the positions of the paths, so that a map no longer
+ * used (e.g. a copy) is dropped with its cache.
+ *
+ * The caches are shared and synchronized; they can be disabled with setEnabled, e.g. to measure A* itself.
+ */
+public class PathCache {
+
+    private static final Counter HITS = Metrics.counter("planning.cache.hit");
+    private static final Counter MISSES = Metrics.counter("planning.cache.miss");
+
+    public static final int CAPACITY = 64;
+
+    /**
+     * Returned by lookup for a query which is not cached
+     */
+    public static final ArrayList<Cell> MISS = new ArrayList<Cell>();
+
+    // marks a cached query without a path
+    private static final Point[] NO_PATH = new Point[0];
+
+    private static boolean enabled = true;
+    private static final WeakHashMap<Map, Paths> caches = new WeakHashMap<Map, Paths>();
+
+    /**
+     * Paths of one map at one layer version
+     */
+    private static class Paths extends LinkedHashMap<Long, Point[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int version;
+
+        Paths(int version) {
+            super(CAPACITY * 4 / 3 + 1, 0.75f, true);
+            this.version = version;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(java.util.Map.Entry<Long, Point[]> eldest) {
+            return size() > CAPACITY;
+        }
+    }
+
+    public static synchronized void setEnabled(boolean enabled) {
+        PathCache.enabled = enabled;
+        caches.clear();
+    }
+
+    public static synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param map
+     * @param start
+     * @param goal
+     * @param initDir
+     * @return MISS if the query is not cached on the map at its current version, else a copy of the cached path,
+     * null if there is no path
+     */
+    public static synchronized ArrayList<Cell> lookup(Map map, Point start, Point goal, Direction initDir) {
+        if (!enabled) {
+            return MISS;
+        }
+        Point[] positions = getPaths(map).get(getKey(start, goal, initDir));
+        if (positions == null) {
+            MISSES.increment();
+            return MISS;
+        }
+        HITS.increment();
+        if (positions == NO_PATH) {
+            return null;
+        }
+        ArrayList<Cell> path = new ArrayList<Cell>(positions.length);
+        for (Point pos : positions) {
+            path.add(map.getCell(pos));
+        }
+        return path;
+    }
+
+    /**
+     * Cache the path of a query on the map at its current version
+     * @param path path found, null if there is none
+     */
+    public static synchronized void put(Map map, Point start, Point goal, Direction initDir, ArrayList<Cell> path) {
+        if (!enabled) {
+            return;
+        }
+        Point[] positions = NO_PATH;
+        if (path != null) {
+            positions = new Point[path.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = new Point(path.get(i).getPos());
+            }
+        }
+        getPaths(map).put(getKey(start, goal, initDir), positions);
+    }
+
+    /**
+     * @return cache of the map, cleared if the map has changed since it was filled
+     */
+    private static Paths getPaths(Map map) {
+        Paths paths = caches.get(map);
+        if (paths == null || paths.version != map.getLayerVersion()) {
+            paths = new Paths(map.getLayerVersion());
+            caches.put(map, paths);
+        }
+        return paths;
+    }
+
+    /**
+     * @return the query packed in a long, 15 bits per coordinate and 2 bits for the direction
+     */
+    private static long getKey(Point start, Point goal, Direction initDir) {
+        return ((long) start.x << 47) | ((long) start.y << 32) | ((long) goal.x << 17) | ((long) goal.y << 2) |
+                initDir.ordinal();
+    }
+}
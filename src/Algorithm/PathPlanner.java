@@ -0,0 +1,22 @@
+package Algorithm;
+
+import Map.Cell;
+import Map.Direction;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans the path of the robot from its position through an ordered list of waypoints, the last one being the goal
+ */
+public interface PathPlanner {
+
+    /**
+     * @param start position of the robot
+     * @param initDir direction of the robot
+     * @param waypoints points to go through in order, the last one being the goal
+     * @return cells of the path after start, or null if there is no path
+     */
+    ArrayList<Cell> plan(Point start, Direction initDir, List<Point> waypoints);
+}
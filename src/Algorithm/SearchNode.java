@@ -0,0 +1,22 @@
+package Algorithm;
+
+/**
+ * Entry of the open list of the grid searches: a packed state and its key, ties broken in insertion order
+ */
+class SearchNode implements Comparable<SearchNode> {
+    final int state;
+    final double f;
+    final long seq;
+
+    SearchNode(int state, double f, long seq) {
+        this.state = state;
+        this.f = f;
+        this.seq = seq;
+    }
+
+    @Override
+    public int compareTo(SearchNode o) {
+        int c = Double.compare(f, o.f);
+        return c != 0 ? c : Long.compare(seq, o.seq);
+    }
+}
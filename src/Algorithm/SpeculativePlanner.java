@@ -0,0 +1,168 @@
+package Algorithm;
+
+import Helper.Counter;
+import Helper.Metrics;
+import Helper.RunProfiler;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+import Robot.Robot;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Plan the next frontier target of goToUnexplored while the robot waits for a sensor frame. Before each wait the
+ * expected frame (Robot.predictSensorRes) is applied to a copy of the explored map, and the target and the path
+ * to it are computed on the copy in the background. If the frame received is the expected one and the map has
+ * not changed otherwise, the real map is then the same as the copy and take returns the precomputed decision.
+ *
+ * The wall hugging choices are a few movable checks and are not worth speculating on: the exploration arms the
+ * planner only before the frames after which goToUnexplored may be called, and the other waits are left alone.
+ */
+public class SpeculativePlanner implements Robot.FrameWaitListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SpeculativePlanner.class.getName());
+
+    private static final Counter HITS = Metrics.counter("planning.speculative.hit");
+    private static final Counter MISSES = Metrics.counter("planning.speculative.miss");
+
+    private static final ExecutorService PLANNER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "speculative-planner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Frontier target and path planned on the expected map
+     */
+    public static class Decision {
+        private final Cell target;
+        private final ArrayList<Cell> path;
+
+        Decision(Cell target, ArrayList<Cell> path) {
+            this.target = target;
+            this.path = path;
+        }
+
+        /**
+         * @return explored cell to go to, null if there is none
+         */
+        public Cell getTarget() {
+            return target;
+        }
+
+        /**
+         * @return path to the target, null if there is none
+         */
+        public ArrayList<Cell> getPath() {
+            return path;
+        }
+    }
+
+    private final Map exploredMap;
+
+    // speculate on the next waits
+    private boolean armed;
+
+    // the speculation of the last wait
+    private Future<Decision> pending;
+    private Point pos;
+    private Direction dir;
+    private HashMap<String, Integer> predicted;
+    private int expectedVersion;
+
+    public SpeculativePlanner(Map exploredMap) {
+        this.exploredMap = exploredMap;
+    }
+
+    /**
+     * @param armed true if goToUnexplored may be called after the next frames, false to not speculate on them
+     */
+    public void setArmed(boolean armed) {
+        this.armed = armed;
+    }
+
+    @Override
+    public void awaitingFrame(Robot robot) {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        if (!armed) {
+            return;
+        }
+        RunProfiler.enter(RunProfiler.Phase.PLANNING);
+        final Map expected = exploredMap.copy();
+        predicted = robot.predictSensorRes(exploredMap);
+        robot.applyPredictedSensorRes(expected, predicted);
+        expectedVersion = expected.getLayerVersion();
+        final Point botLoc = pos = new Point(robot.getPos());
+        final Direction botDir = dir = robot.getDir();
+        pending = PLANNER.submit(() -> decide(expected, botLoc, botDir));
+        RunProfiler.exit();
+    }
+
+    private static Decision decide(Map map, Point botLoc, Direction botDir) {
+        Cell target = Exploration.chooseUnexploredTarget(map, botLoc, botDir);
+        if (target == null) {
+            return new Decision(null, null);
+        }
+        FastestPath fp = new FastestPath(map, new Robot(true, true, botLoc.y, botLoc.x, botDir), true);
+        return new Decision(target, fp.runAStar(botLoc, target.getPos(), botDir, false));
+    }
+
+    /**
+     * @param robot
+     * @return decision planned during the last wait if the robot has not moved since, the frame received was the
+     * expected one and the map has not changed otherwise, with its cells on the explored map; null if not
+     */
+    public Decision take(Robot robot) throws InterruptedException {
+        Future<Decision> speculation = pending;
+        pending = null;
+        if (speculation == null || !robot.getPos().equals(pos) || robot.getDir() != dir ||
+                !predicted.equals(robot.getSensorRes()) || exploredMap.getLayerVersion() != expectedVersion) {
+            if (speculation != null) {
+                speculation.cancel(false);
+            }
+            MISSES.increment();
+            return null;
+        }
+        Decision decision;
+        try {
+            decision = speculation.get();
+        } catch (ExecutionException e) {
+            LOGGER.warning("Speculative planning failed: " + e.getCause());
+            MISSES.increment();
+            return null;
+        }
+        HITS.increment();
+        if (decision.getTarget() == null) {
+            return decision;
+        }
+        ArrayList<Cell> path = null;
+        if (decision.getPath() != null) {
+            path = new ArrayList<Cell>();
+            for (Cell cell : decision.getPath()) {
+                path.add(exploredMap.getCell(cell.getPos()));
+            }
+        }
+        return new Decision(exploredMap.getCell(decision.getTarget().getPos()), path);
+    }
+
+    /**
+     * Stop speculating, e.g. at the end of the exploration
+     */
+    public void cancel() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+}
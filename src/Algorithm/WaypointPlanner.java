@@ -0,0 +1,182 @@
+package Algorithm;
+
+import Helper.FlightEvents;
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+import Helper.RunProfiler;
+import Map.Cell;
+import Map.Direction;
+import Map.Map;
+import Robot.RobotConstants;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * A* search of the path through an ordered list of waypoints in one pass, over the layered states
+ * (index of the next waypoint, cell, heading). Reaching the next waypoint moves to the next layer, so the heading
+ * of the robot carries over from one waypoint to the next and the path is the cheapest through all of them, with
+ * the move and turn costs of FastestPath.
+ *
+ * The heuristic is the Manhattan distance to the next waypoint plus the distances between the remaining ones.
+ */
+public class WaypointPlanner implements PathPlanner {
+
+    private static final Logger LOGGER = Logger.getLogger(WaypointPlanner.class.getName());
+
+    private static final LatencyHistogram PLAN_LATENCY = Metrics.histogram("planning.waypoints");
+
+    private static final int HEADINGS = Direction.values().length;
+    // row and col increments of a move in each Direction (UP, LEFT, DOWN, RIGHT)
+    private static final int[] ROW_INC = {1, 0, -1, 0};
+    private static final int[] COL_INC = {0, -1, 0, 1};
+
+    private final Map exploredMap;
+    private int expansions;
+
+    public WaypointPlanner(Map exploredMap) {
+        this.exploredMap = exploredMap;
+    }
+
+    /**
+     * @return number of states expanded by the last plan
+     */
+    public int getExpansions() {
+        return expansions;
+    }
+
+    @Override
+    public ArrayList<Cell> plan(Point start, Direction initDir, List<Point> waypoints) {
+        RunProfiler.enter(RunProfiler.Phase.PLANNING);
+        FlightEvents.AStarEvent event = FlightEvents.beginAStar();
+        long startNanos = System.nanoTime();
+        ArrayList<Cell> path = null;
+        try {
+            path = search(start, initDir, waypoints);
+            return path;
+        } finally {
+            PLAN_LATENCY.recordSince(startNanos);
+            FlightEvents.endAStar(event, start, waypoints.isEmpty() ? start : waypoints.get(waypoints.size() - 1),
+                    expansions, path == null ? -1 : path.size());
+            RunProfiler.exit();
+        }
+    }
+
+    private ArrayList<Cell> search(Point start, Direction initDir, List<Point> waypoints) {
+        LOGGER.info(String.format("Finding path from %s through %s, initial direction: %s", start, waypoints, initDir));
+        expansions = 0;
+        int width = exploredMap.getWidth();
+        int cells = width * exploredMap.getHeight();
+        int goalLayer = waypoints.size();
+        int startLayer = nextLayer(waypoints, 0, start.y, start.x);
+        for (Point wp : waypoints.subList(startLayer, goalLayer)) {
+            if (!exploredMap.checkValidMove(wp.y, wp.x)) {
+                LOGGER.warning(String.format("Cannot find a path through %s, %s is not reachable", waypoints, wp));
+                return null;
+            }
+        }
+
+        // remaining[l]: Manhattan distance from waypoint l through the following ones to the goal
+        double[] remaining = new double[goalLayer + 1];
+        for (int l = goalLayer - 2; l >= 0; l--) {
+            Point a = waypoints.get(l);
+            Point b = waypoints.get(l + 1);
+            remaining[l] = remaining[l + 1] + RobotConstants.MOVE_COST * (Math.abs(a.x - b.x) + Math.abs(a.y - b.y));
+        }
+
+        int states = (goalLayer + 1) * cells * HEADINGS;
+        double[] g = new double[states];
+        int[] parent = new int[states];
+        boolean[] closed = new boolean[states];
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        PriorityQueue<SearchNode> open = new PriorityQueue<SearchNode>();
+        long seq = 0;
+
+        int startState = (startLayer * cells + start.y * width + start.x) * HEADINGS + initDir.ordinal();
+        g[startState] = 0;
+        open.add(new SearchNode(startState, getH(waypoints, remaining, startLayer, start.y, start.x), seq++));
+
+        while (!open.isEmpty()) {
+            int state = open.poll().state;
+            if (closed[state]) {
+                continue;
+            }
+            closed[state] = true;
+            expansions++;
+            int heading = state % HEADINGS;
+            int cell = (state / HEADINGS) % cells;
+            int layer = state / HEADINGS / cells;
+            if (layer == goalLayer) {
+                LOGGER.info(String.format("Path found, %d states expanded", expansions));
+                return getPath(parent, state, cells);
+            }
+            int row = cell / width;
+            int col = cell % width;
+            for (int dir = 0; dir < HEADINGS; dir++) {
+                int newRow = row + ROW_INC[dir];
+                int newCol = col + COL_INC[dir];
+                if (!exploredMap.checkValidMove(newRow, newCol)) {
+                    continue;
+                }
+                int newLayer = nextLayer(waypoints, layer, newRow, newCol);
+                int newState = (newLayer * cells + newRow * width + newCol) * HEADINGS + dir;
+                if (closed[newState]) {
+                    continue;
+                }
+                double newG = g[state] + RobotConstants.MOVE_COST + getTurns(heading, dir) * RobotConstants.TURN_COST;
+                if (newG < g[newState]) {
+                    g[newState] = newG;
+                    parent[newState] = state;
+                    open.add(new SearchNode(newState, newG + getH(waypoints, remaining, newLayer, newRow, newCol), seq++));
+                }
+            }
+        }
+
+        LOGGER.warning(String.format("Cannot find a path from %s through %s, dir: %s", start, waypoints, initDir));
+        return null;
+    }
+
+    /**
+     * @return layer after reaching (row, col) in layer layer, i.e. index of the next waypoint not at (row, col)
+     */
+    private static int nextLayer(List<Point> waypoints, int layer, int row, int col) {
+        while (layer < waypoints.size() && waypoints.get(layer).y == row && waypoints.get(layer).x == col) {
+            layer++;
+        }
+        return layer;
+    }
+
+    private static double getH(List<Point> waypoints, double[] remaining, int layer, int row, int col) {
+        if (layer == waypoints.size()) {
+            return 0;
+        }
+        Point wp = waypoints.get(layer);
+        return RobotConstants.MOVE_COST * (Math.abs(wp.y - row) + Math.abs(wp.x - col)) + remaining[layer];
+    }
+
+    /**
+     * @return number of 90 degree turns between two headings
+     */
+    private static int getTurns(int from, int to) {
+        int turns = Math.abs(from - to);
+        return turns == 3 ? 1 : turns;
+    }
+
+    private ArrayList<Cell> getPath(int[] parent, int state, int cells) {
+        int width = exploredMap.getWidth();
+        ArrayList<Cell> path = new ArrayList<Cell>();
+        while (parent[state] >= 0) {
+            int cell = (state / HEADINGS) % cells;
+            path.add(exploredMap.getCell(cell / width, cell % width));
+            state = parent[state];
+        }
+        Collections.reverse(path);
+        return path;
+    }
+}
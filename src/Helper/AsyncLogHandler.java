@@ -0,0 +1,154 @@
+package Helper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Log handler queuing the records in a bounded ring buffer and publishing them to the wrapped handlers on a
+ * background thread, so that the robot thread does not block on console I/O.
+ * Parameterised messages (LOGGER.log(Level.INFO, "row = {0}", row)) are only formatted on the background thread.
+ *
+ * When the buffer is full, records below WARNING are dropped (counted by the log.dropped metric) and
+ * WARNING and above wait for space. The source of a queued record is its logger name, as the calling method
+ * cannot be inferred from the background thread.
+ */
+public class AsyncLogHandler extends Handler {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+
+    private final Handler[] targets;
+    private final ArrayBlockingQueue<LogRecord> queue;
+    private final Thread writer;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final Counter dropped = Metrics.counter("log.dropped");
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity maximum number of queued records
+     * @param targets handlers writing the records
+     */
+    public AsyncLogHandler(int capacity, Handler... targets) {
+        this.targets = targets;
+        this.queue = new ArrayBlockingQueue<LogRecord>(capacity);
+        this.writer = new Thread(this::writeLoop, "async-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Replace the handlers of the root logger by an AsyncLogHandler wrapping them
+     * @return the installed handler, null if the root logger has no handler or is already asynchronous
+     */
+    public static synchronized AsyncLogHandler install() {
+        Logger root = Logger.getLogger("");
+        Handler[] handlers = root.getHandlers();
+        if (handlers.length == 0) {
+            return null;
+        }
+        for (Handler handler : handlers) {
+            if (handler instanceof AsyncLogHandler) {
+                return null;
+            }
+        }
+        for (Handler handler : handlers) {
+            root.removeHandler(handler);
+        }
+        AsyncLogHandler async = new AsyncLogHandler(DEFAULT_CAPACITY, handlers);
+        root.addHandler(async);
+        return async;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        // setting the source stops JUL from walking the stack of the background thread
+        record.setSourceClassName(record.getLoggerName());
+        record.setSourceMethodName(null);
+
+        if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+            if (!queue.offer(record)) {
+                dropped.increment();
+                return;
+            }
+        }
+        else {
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.increment();
+                return;
+            }
+        }
+        queued.incrementAndGet();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            LogRecord record;
+            try {
+                record = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Handler target : targets) {
+                try {
+                    target.publish(record);
+                } catch (RuntimeException e) {
+                    reportError(null, e, 0);
+                }
+            }
+            published.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait (at most FLUSH_TIMEOUT_MS) for the records queued so far to be written, then flush the wrapped handlers
+     */
+    @Override
+    public void flush() {
+        long last = queued.get();
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MS;
+        while (published.get() < last && writer.isAlive() && System.currentTimeMillis() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Handler target : targets) {
+            target.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        writer.interrupt();
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+
+    /**
+     * @return number of records dropped since the start because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
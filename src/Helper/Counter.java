@@ -0,0 +1,36 @@
+package Helper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter of the Metrics registry, striped (LongAdder) so that concurrent increments do not contend
+ */
+public class Counter {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    void reset() {
+        count.reset();
+    }
+}
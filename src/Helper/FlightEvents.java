@@ -0,0 +1,245 @@
+package Helper;
+
+import Robot.Command;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.logging.Logger;
+
+/**
+ * Java Flight Recorder events of the robot commands, sensor frames, A* queries and Android updates, to correlate
+ * robot stalls with GC pauses and socket blocking in JMC.
+ *
+ * The events are off unless enabled with -Dmdp.jfr=true. The begin methods then return null and no event is
+ * allocated, so the instrumented code only pays a static field read. With the flag on, the events are recorded by
+ * any running recording (e.g. -XX:StartFlightRecording), or by the one started by startRecording when
+ * -Dmdp.jfr.file is given.
+ */
+public class FlightEvents {
+
+    private static final Logger LOGGER = Logger.getLogger(FlightEvents.class.getName());
+
+    private static final boolean ENABLED = Boolean.getBoolean("mdp.jfr");
+
+    private static Recording recording;
+
+    @Name("mdp.RobotCommand")
+    @Label("Robot Command")
+    @Description("Movement or calibration command of the robot, including the sim delay")
+    @Category({"MDP", "Robot"})
+    @StackTrace(false)
+    public static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Steps")
+        int steps;
+
+        @Label("Sent to Arduino")
+        boolean sent;
+    }
+
+    @Name("mdp.SensorFrame")
+    @Label("Sensor Frame")
+    @Description("Sensor readings of the robot, the duration includes the wait for the frame on the socket")
+    @Category({"MDP", "Robot"})
+    @StackTrace(false)
+    public static class SensorFrameEvent extends Event {
+        @Label("Frame")
+        String frame;
+
+        @Label("Simulated")
+        boolean sim;
+    }
+
+    @Name("mdp.AStarQuery")
+    @Label("A* Query")
+    @Category({"MDP", "Planning"})
+    @StackTrace(false)
+    public static class AStarEvent extends Event {
+        @Label("Start Row")
+        int startRow;
+
+        @Label("Start Col")
+        int startCol;
+
+        @Label("Goal Row")
+        int goalRow;
+
+        @Label("Goal Col")
+        int goalCol;
+
+        @Label("Expansions")
+        int expansions;
+
+        @Label("Path Length")
+        @Description("Number of cells of the path, -1 if there is no path")
+        int pathLength;
+    }
+
+    @Name("mdp.AndroidUpdate")
+    @Label("Android Update")
+    @Description("Robot (and map) update sent to Android, including the JSON serialization")
+    @Category({"MDP", "Network"})
+    @StackTrace(false)
+    public static class AndroidUpdateEvent extends Event {
+        @Label("Message Length")
+        int length;
+
+        @Label("With Map")
+        boolean withMap;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Start a recording with the default JFR settings dumped to -Dmdp.jfr.file when the JVM exits.
+     * Nothing is done if the events are disabled, no file is given or the recording is already started.
+     */
+    public static synchronized void startRecording() {
+        String file = System.getProperty("mdp.jfr.file");
+        if (!ENABLED || file == null || recording != null) {
+            return;
+        }
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+            recording.setDestination(Paths.get(file));
+            recording.setToDisk(true);
+            recording.start();
+            LOGGER.info("Flight recording to " + file);
+        } catch (IOException | ParseException e) {
+            LOGGER.warning("Cannot start the flight recording: " + e.toString());
+            recording = null;
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (FlightEvents.class) {
+                recording.close();  // stopping a recording with a destination writes it
+            }
+        }, "jfr-dump"));
+    }
+
+    public static CommandEvent beginCommand() {
+        if (!ENABLED) {
+            return null;
+        }
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event returned by beginCommand, nothing is done if null
+     * @param cmd
+     * @param steps
+     * @param sent true if the command was sent to the Arduino
+     */
+    public static void endCommand(CommandEvent event, Command cmd, int steps, boolean sent) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.command = cmd.toString();
+            event.steps = steps;
+            event.sent = sent;
+            event.commit();
+        }
+    }
+
+    public static SensorFrameEvent beginSensorFrame() {
+        if (!ENABLED) {
+            return null;
+        }
+        SensorFrameEvent event = new SensorFrameEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event returned by beginSensorFrame, nothing is done if null
+     * @param frame sensor message received from the RPI, null in sim
+     */
+    public static void endSensorFrame(SensorFrameEvent event, String frame) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.frame = frame;
+            event.sim = frame == null;
+            event.commit();
+        }
+    }
+
+    public static AStarEvent beginAStar() {
+        if (!ENABLED) {
+            return null;
+        }
+        AStarEvent event = new AStarEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event returned by beginAStar, nothing is done if null
+     * @param start
+     * @param goal
+     * @param expansions number of cells expanded by the search
+     * @param pathLength number of cells of the path, -1 if there is no path
+     */
+    public static void endAStar(AStarEvent event, Point start, Point goal, int expansions, int pathLength) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.startRow = start.y;
+            event.startCol = start.x;
+            event.goalRow = goal.y;
+            event.goalCol = goal.x;
+            event.expansions = expansions;
+            event.pathLength = pathLength;
+            event.commit();
+        }
+    }
+
+    public static AndroidUpdateEvent beginAndroidUpdate() {
+        if (!ENABLED) {
+            return null;
+        }
+        AndroidUpdateEvent event = new AndroidUpdateEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event returned by beginAndroidUpdate, nothing is done if null
+     * @param msg message sent to Android
+     * @param withMap true if the message has the explored map
+     */
+    public static void endAndroidUpdate(AndroidUpdateEvent event, String msg, boolean withMap) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.length = msg.length();
+            event.withMap = withMap;
+            event.commit();
+        }
+    }
+}
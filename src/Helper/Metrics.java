@@ -0,0 +1,109 @@
+package Helper;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the counters and latency histograms of the hot paths.
+ * Metrics are looked up once by name (e.g. in a static final field) and recording into them does not allocate,
+ * so they are always on. The values can be dumped periodically to the log and are shown in the simulator.
+ */
+public class Metrics {
+
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private static ScheduledExecutorService dumpExecutor;
+    private static ScheduledFuture<?> dumpTask;
+
+    /**
+     * Get or create a counter
+     * @param name
+     * @return
+     */
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new Counter(name));
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    /**
+     * Get or create a latency histogram
+     * @param name
+     * @return
+     */
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histograms.putIfAbsent(name, new LatencyHistogram(name));
+            histogram = histograms.get(name);
+        }
+        return histogram;
+    }
+
+    /**
+     * Reset all the metrics, e.g. before a run
+     */
+    public static void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return one line per metric sorted by name, latencies in microseconds
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+            sb.append(String.format("%-32s %d%n", entry.getKey(), entry.getValue().get()));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            if (h.getCount() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-32s n=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus%n", entry.getKey(),
+                    h.getCount(), h.getMean() / 1e3, h.getPercentile(50) / 1e3, h.getPercentile(99) / 1e3, h.getMax() / 1e3));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Log the dump every period on a daemon thread, replacing any previous periodic dump
+     * @param period
+     * @param unit
+     */
+    public static synchronized void startPeriodicDump(long period, TimeUnit unit) {
+        stopPeriodicDump();
+        if (dumpExecutor == null) {
+            dumpExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        dumpTask = dumpExecutor.scheduleAtFixedRate(() -> LOGGER.info("Metrics\n" + dump()), period, period, unit);
+    }
+
+    public static synchronized void stopPeriodicDump() {
+        if (dumpTask != null) {
+            dumpTask.cancel(false);
+            dumpTask = null;
+        }
+    }
+}
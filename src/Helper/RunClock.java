@@ -0,0 +1,42 @@
+package Helper;
+
+/**
+ * Clock of the exploration time limit. It is the system clock, except during a replay where it is a virtual clock
+ * set to the recorded time of the frames, so that a run replays faster than real time with the same timing.
+ */
+public class RunClock {
+
+    private static volatile boolean virtual = false;
+    private static volatile long virtualMillis;
+
+    public static long currentTimeMillis() {
+        return virtual ? virtualMillis : System.currentTimeMillis();
+    }
+
+    /**
+     * Switch to the virtual clock
+     * @param millis start time of the virtual clock
+     */
+    public static void useVirtualClock(long millis) {
+        virtualMillis = millis;
+        virtual = true;
+    }
+
+    public static void useSystemClock() {
+        virtual = false;
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Move the virtual clock forward, it never goes back
+     * @param millis
+     */
+    public static void advanceTo(long millis) {
+        if (millis > virtualMillis) {
+            virtualMillis = millis;
+        }
+    }
+}
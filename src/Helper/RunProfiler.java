@@ -0,0 +1,311 @@
+package Helper;
+
+import Robot.Command;
+import Robot.RobotConstants;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Instrumented run mode. While a run (exploration or fastest path) is profiled, the CPU time of the run thread
+ * is charged to the phase it is in (planning, sensing/map update, MDF/JSON serialization, logging, the rest being
+ * the exploration logic), and the robot commands are counted to get the motion time of the run at its
+ * steps per second. The report is written as JSON to the report directory when the run ends.
+ *
+ * Profiling is off unless enabled with setEnabled or -Dmdp.profile=true (directory -Dmdp.profile.dir, default reports).
+ * When it is off, or outside the run thread, enter/exit/motion return immediately.
+ */
+public class RunProfiler {
+
+    private static final Logger LOGGER = Logger.getLogger(RunProfiler.class.getName());
+
+    public enum Phase {
+        PLANNING, SENSING, SERIALIZATION, LOGGING
+    }
+
+    private static final int MAX_DEPTH = 32;
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private static boolean enabled = Boolean.getBoolean("mdp.profile");
+    private static String reportDir = System.getProperty("mdp.profile.dir", "reports");
+    private static volatile RunProfiler active;
+
+    private final String name;
+    private final Thread thread;
+    private final long startTime;
+    private final long startNanos;
+    private final long startCpu;
+
+    // exclusive CPU time per phase, nested phases are not charged to the enclosing phase
+    private final long[] cpu = new long[Phase.values().length];
+    private final int[] calls = new int[Phase.values().length];
+    private final Phase[] stack = new Phase[MAX_DEPTH];
+    private int depth = 0;
+    private int overflow = 0;   // phases entered beyond MAX_DEPTH, not charged
+    private long mark;
+
+    private int forwardSteps = 0;
+    private int backwardSteps = 0;
+    private int turns = 0;
+    private int commands = 0;
+    private double motionMs = 0;
+
+    private Handler[] rootHandlers;
+    private JSONObject report;
+
+    private RunProfiler(String name) {
+        this.name = name;
+        this.thread = Thread.currentThread();
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.startCpu = cpuTime();
+        this.mark = startCpu;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        RunProfiler.enabled = enabled;
+    }
+
+    public static void setReportDir(String reportDir) {
+        RunProfiler.reportDir = reportDir;
+    }
+
+    /**
+     * Start profiling a run in the current thread
+     * @param name name of the run, e.g. exploration
+     * @return profiler of the run, null if profiling is off or another run is already profiled
+     */
+    public static synchronized RunProfiler begin(String name) {
+        if (!enabled || active != null) {
+            return null;
+        }
+        RunProfiler profiler = new RunProfiler(name);
+        profiler.wrapLogHandlers();
+        active = profiler;
+        return profiler;
+    }
+
+    /**
+     * End the run and write its report
+     * @param profiler returned by begin, nothing is done if null
+     */
+    public static synchronized void end(RunProfiler profiler) {
+        if (profiler == null || active != profiler) {
+            return;
+        }
+        active = null;
+        profiler.restoreLogHandlers();
+        profiler.report = profiler.toJSON();
+        profiler.writeReport();
+    }
+
+    public static void enter(Phase phase) {
+        RunProfiler profiler = active;
+        if (profiler != null && profiler.thread == Thread.currentThread()) {
+            profiler.push(phase);
+        }
+    }
+
+    public static void exit() {
+        RunProfiler profiler = active;
+        if (profiler != null && profiler.thread == Thread.currentThread()) {
+            profiler.pop();
+        }
+    }
+
+    /**
+     * Count a robot command of the run. Commands of the temporary robot used by the planner are not counted.
+     * @param cmd
+     * @param steps number of steps for FORWARD/BACKWARD, 1 for turns
+     * @param stepsPerSecond
+     */
+    public static void motion(Command cmd, int steps, int stepsPerSecond) {
+        RunProfiler profiler = active;
+        if (profiler == null || profiler.thread != Thread.currentThread() || profiler.inPhase(Phase.PLANNING)) {
+            return;
+        }
+        switch (cmd) {
+            case FORWARD:
+                profiler.forwardSteps += steps;
+                break;
+            case BACKWARD:
+                profiler.backwardSteps += steps;
+                break;
+            case TURN_LEFT:
+            case TURN_RIGHT:
+                profiler.turns += steps;
+                break;
+            default:
+                return;
+        }
+        profiler.commands++;
+        profiler.motionMs += (double) RobotConstants.WAIT_TIME / stepsPerSecond * steps;
+    }
+
+    /**
+     * @return report of the run, null until it has ended
+     */
+    public JSONObject getReport() {
+        return report;
+    }
+
+    private static long cpuTime() {
+        return THREAD_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private void charge(long now) {
+        if (depth > 0) {
+            cpu[stack[depth - 1].ordinal()] += now - mark;
+        }
+        mark = now;
+    }
+
+    private void push(Phase phase) {
+        if (depth == MAX_DEPTH) {
+            overflow++;
+            return;
+        }
+        charge(cpuTime());
+        stack[depth++] = phase;
+        calls[phase.ordinal()]++;
+    }
+
+    private void pop() {
+        if (overflow > 0) {
+            overflow--;
+            return;
+        }
+        if (depth == 0) {
+            return;
+        }
+        charge(cpuTime());
+        depth--;
+    }
+
+    private boolean inPhase(Phase phase) {
+        for (int i = 0; i < depth; i++) {
+            if (stack[i] == phase) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Time the handlers of the root logger, where the log records are formatted and written
+     */
+    private void wrapLogHandlers() {
+        Logger root = Logger.getLogger("");
+        rootHandlers = root.getHandlers();
+        if (rootHandlers.length == 0) {
+            return;
+        }
+        for (Handler handler : rootHandlers) {
+            root.removeHandler(handler);
+        }
+        root.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                enter(Phase.LOGGING);
+                try {
+                    for (Handler handler : rootHandlers) {
+                        handler.publish(record);
+                    }
+                } finally {
+                    exit();
+                }
+            }
+
+            @Override
+            public void flush() {
+                for (Handler handler : rootHandlers) {
+                    handler.flush();
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    private void restoreLogHandlers() {
+        Logger root = Logger.getLogger("");
+        if (rootHandlers.length == 0) {
+            return;
+        }
+        for (Handler handler : root.getHandlers()) {
+            root.removeHandler(handler);
+        }
+        for (Handler handler : rootHandlers) {
+            root.addHandler(handler);
+        }
+    }
+
+    private JSONObject toJSON() {
+        long wallNanos = System.nanoTime() - startNanos;
+        long totalCpu = cpuTime() - startCpu;
+        long phasesCpu = 0;
+
+        JSONObject cpuJson = new JSONObject();
+        JSONObject callsJson = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            cpuJson.put(phase.name().toLowerCase(), cpu[phase.ordinal()] / 1e6);
+            callsJson.put(phase.name().toLowerCase(), calls[phase.ordinal()]);
+            phasesCpu += cpu[phase.ordinal()];
+        }
+        cpuJson.put("other", (totalCpu - phasesCpu) / 1e6);
+        cpuJson.put("total", totalCpu / 1e6);
+
+        JSONObject motionJson = new JSONObject()
+                .put("forwardSteps", forwardSteps)
+                .put("backwardSteps", backwardSteps)
+                .put("turns", turns)
+                .put("commands", commands)
+                .put("motionMs", motionMs);
+
+        return new JSONObject()
+                .put("run", name)
+                .put("start", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(startTime)))
+                .put("wallMs", wallNanos / 1e6)
+                .put("cpuMs", cpuJson)
+                .put("calls", callsJson)
+                .put("motion", motionJson)
+                .put("softwareOverheadMs", totalCpu / 1e6)
+                .put("overheadRatio", totalCpu / 1e6 / (totalCpu / 1e6 + motionMs));
+    }
+
+    private void writeReport() {
+        File dir = new File(reportDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warning("Cannot create report directory " + reportDir);
+            return;
+        }
+        String filename = String.format("%s-%s.json", name, new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(startTime)));
+        File file = new File(dir, filename);
+        try {
+            FileWriter writer = new FileWriter(file);
+            writer.write(report.toString(2));
+            writer.close();
+            LOGGER.info(String.format("Run report %s: cpu %.1f ms, motion %.1f ms", file.getPath(),
+                    report.getJSONObject("cpuMs").getDouble("total"), motionMs));
+        } catch (IOException e) {
+            LOGGER.warning("Cannot write run report " + file.getPath());
+            e.printStackTrace();
+        }
+    }
+}
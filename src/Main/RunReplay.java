@@ -0,0 +1,94 @@
+package Main;
+
+import Algorithm.Exploration;
+import Helper.RunClock;
+import Map.Direction;
+import Map.Map;
+import Map.MapConstants;
+import Map.MapDescriptor;
+import Network.NetMgr;
+import Network.NetworkConstants;
+import Network.ReplayNetMgr;
+import Network.RunJournal;
+import Robot.Command;
+import Robot.Robot;
+import Robot.RobotConstants;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Replay the exploration of a run journal recorded on the real robot (-Dmdp.journal.dir) through the same steps as
+ * the simulator in real mode, with a virtual clock. The recorded sensor frames are fed to the robot, so the
+ * replayed exploration can be profiled and compared with the recorded one after a change of the algorithm.
+ */
+public class RunReplay {
+
+    private static final Logger LOGGER = Logger.getLogger(RunReplay.class.getName());
+
+    /**
+     * @param args journal [coverage limit (%), default 100] [time limit (s), default 360] [exploration|image]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: RunReplay <journal> [coverageLimit] [timeLimitSeconds] [exploration|image]");
+            return;
+        }
+        double coverageLimit = args.length > 1 ? Double.parseDouble(args[1]) : 100;
+        int timeLimit = (args.length > 2 ? Integer.parseInt(args[2]) : 360) * 1000;
+        boolean image = args.length > 3 && args[3].equals("image");
+
+        RunJournal journal = new RunJournal(args[0]);
+        ReplayNetMgr netMgr = new ReplayNetMgr(journal);
+        NetMgr.setInstance(netMgr);
+
+        Map exploredMap = new Map();
+        Robot robot = new Robot(false, false, 1, 1, Direction.RIGHT);
+        robot.setStartPos(robot.getPos().y, robot.getPos().x, exploredMap);
+        Exploration explore = new Exploration(exploredMap, null, robot, coverageLimit, timeLimit,
+                RobotConstants.STEP_PER_SECOND, false);
+
+        long startNanos = System.nanoTime();
+        long startMillis = RunClock.currentTimeMillis();
+        try {
+            // same start as the simulator in real mode
+            String msg;
+            Point wayPoint = null;
+            Point startPos = null;
+            do {
+                msg = netMgr.receive();
+                if (msg.contains(NetworkConstants.WAY_POINT_KEY)) {
+                    wayPoint = robot.parseWayPointJson(msg);
+                }
+                if (msg.contains(NetworkConstants.START_POINT_KEY)) {
+                    startPos = robot.parseStartPointJson(msg);
+                    robot.setStartPos(startPos.y, startPos.x, exploredMap);
+                }
+            } while (!msg.equals(NetworkConstants.START_EXP) || wayPoint == null || startPos == null);
+            startMillis = RunClock.currentTimeMillis();
+            netMgr.send(NetworkConstants.ARDUINO + robot.getCommand(Command.SEND_SENSORS, RobotConstants.MOVE_STEPS));
+            robot.sense(exploredMap, null);
+
+            if (image) {
+                explore.imageExploration(new Point(MapConstants.STARTZONE_COL, MapConstants.STARTZONE_COL));
+            }
+            else {
+                explore.exploration(new Point(MapConstants.STARTZONE_COL, MapConstants.STARTZONE_COL));
+            }
+            robot.send_android(exploredMap);
+        } catch (ReplayNetMgr.EndOfJournalException e) {
+            LOGGER.info("Run journal ended before the exploration");
+        } finally {
+            journal.close();
+        }
+
+        MapDescriptor mdf = new MapDescriptor();
+        System.out.println(netMgr.getSummary());
+        System.out.println(String.format("Explored %.1f%% at %s, recorded time %.1f s, replayed in %.1f ms",
+                exploredMap.getExploredPercentage(), robot.getPos(), (RunClock.currentTimeMillis() - startMillis) / 1e3,
+                (System.nanoTime() - startNanos) / 1e6));
+        System.out.println("MDF1: " + mdf.generateMDFString1(exploredMap));
+        System.out.println("MDF2: " + mdf.generateMDFString2(exploredMap));
+    }
+}
@@ -1,7 +1,12 @@
 package Main;
 
+import Algorithm.DistanceOracle;
 import Algorithm.Exploration;
 import Algorithm.FastestPath;
+import Algorithm.MotionCompiler;
+import Algorithm.MotionCostModel;
+import Algorithm.PathPlanner;
+import Algorithm.WaypointPlanner;
 import Map.Cell;
 import Map.*;
 import Network.NetMgr;
@@ -37,7 +42,9 @@ import javafx.animation.AnimationTimer;
 
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -99,11 +106,11 @@ public class SimulatorNew extends Application {
             setObstacleBtn, cancelBtn, confirmBtn;
     private RadioButton expRB, fastPathRB, imageRB, simRB, realRB, upRB, downRB, leftRB, rightRB;
     private ToggleGroup mode, task, startDir;
-    private TextArea debugOutput;
+    private TextArea debugOutput, metricsOutput;
     private ScrollBar timeLimitSB, coverageLimitSB, stepsSB;
     private TextField startPosTxt, wayPointTxt, timeLimitTxt, coverageLimitTxt, stepsTxt, mapTxt;
     private Label genSetLbl, simSetLbl, arenaSetLbl, startPosLbl, startDirLbl, wayPointLbl, timeLimitLbl, coverageLimitLbl, stepsLbl;
-    private Label modeChoiceLbl, taskChoiceLbl, mapChoiceLbl, statusLbl, timerLbl;
+    private Label modeChoiceLbl, taskChoiceLbl, mapChoiceLbl, statusLbl, timerLbl, metricsLbl;
     private Label timerTextLbl;
     private FileChooser fileChooser;
 //    private VBox timerVBox;
@@ -122,6 +129,18 @@ public class SimulatorNew extends Application {
         exploredMap = new Map();
 
 
+        // Write the log on a background thread unless -Dmdp.log.sync=true
+        if (!Boolean.getBoolean("mdp.log.sync")) {
+            AsyncLogHandler.install();
+        }
+        // Log the metrics every -Dmdp.metrics.period seconds, off by default
+        int metricsPeriod = Integer.getInteger("mdp.metrics.period", 0);
+        if (metricsPeriod > 0) {
+            Metrics.startPeriodicDump(metricsPeriod, TimeUnit.SECONDS);
+        }
+        // Flight recording of the run when started with -Dmdp.jfr=true -Dmdp.jfr.file=<file>
+        FlightEvents.startRecording();
+
         // Default Location at the startzone
         robot = new Robot(sim, false, 1, 1, Direction.RIGHT);
         robot.setStartPos(robot.getPos().y, robot.getPos().x, exploredMap);
@@ -144,14 +163,15 @@ public class SimulatorNew extends Application {
         controlGrid.setVgap(5);
 
         // Drawing Component
-        mapGrid = new Canvas(MapConstants.MAP_CELL_SZ * MapConstants.MAP_WIDTH + 1 + MapConstants.MAP_OFFSET,
-                MapConstants.MAP_CELL_SZ * MapConstants.MAP_HEIGHT + 1 + MapConstants.MAP_OFFSET);
+        mapGrid = new Canvas(MapConstants.MAP_CELL_SZ * exploredMap.getWidth() + 1 + MapConstants.MAP_OFFSET,
+                MapConstants.MAP_CELL_SZ * exploredMap.getHeight() + 1 + MapConstants.MAP_OFFSET);
         gc = mapGrid.getGraphicsContext2D();
 //        expMapDraw = !setObstacle;
 
         animateTimer1 = new AnimationTimer() {
 
             private long startTime ;
+            private long metricsTime;
 
             @Override
             public void start() {
@@ -165,6 +185,11 @@ public class SimulatorNew extends Application {
                 drawMap(expMapDraw);
                 drawRobot();
                 debugOutput.setText(robot.getStatus() + "\n" + robot.toString());
+                // the metrics are refreshed once a second only, formatting them every frame is wasteful
+                if (now - metricsTime >= 1000) {
+                    metricsOutput.setText(Metrics.dump());
+                    metricsTime = now;
+                }
                 timerTextLbl.setText(displayTimer.getTimerLbl());
                 if (startedTask != null) {
                     if (!startedTask.isAlive()) {
@@ -246,6 +271,10 @@ public class SimulatorNew extends Application {
         timerLbl.setBackground(new Background(new BackgroundFill(Color.LIGHTGRAY, CornerRadii.EMPTY, Insets.EMPTY)));
         timerLbl.setMaxWidth(MAX_WIDTH);
 
+        metricsLbl = new Label("Metrics");
+        metricsLbl.setBackground(new Background(new BackgroundFill(Color.LIGHTGRAY, CornerRadii.EMPTY, Insets.EMPTY)));
+        metricsLbl.setMaxWidth(MAX_WIDTH);
+
         // Buttons Init
         connectBtn = new Button("Connect");
         startBtn = new Button("Start");
@@ -361,6 +390,10 @@ public class SimulatorNew extends Application {
                 // TextArea
         debugOutput = new TextArea();
         debugOutput.setMaxHeight(100);
+        metricsOutput = new TextArea();
+        metricsOutput.setMaxHeight(120);
+        metricsOutput.setEditable(false);
+        metricsOutput.setStyle("-fx-font-family: monospace; -fx-font-size: 10;");
 
         // File Chooser
         fileChooser = new FileChooser();
@@ -398,6 +431,7 @@ public class SimulatorNew extends Application {
         stepsSB.setValue(steps);
 
         // load default map from defaultMapPath
+        fitMapsTo(defaultMapPath);
         mapDescriptor.loadRealMap(map, defaultMapPath);
         mapDescriptor.loadRealMap(exploredMap, defaultMapPath);     // to display when start the app
 
@@ -426,8 +460,8 @@ public class SimulatorNew extends Application {
                 dialog.initModality(Modality.APPLICATION_MODAL);
                 dialog.initOwner(primaryStage);
 
-                newMapGrid = new Canvas(MapConstants.MAP_CELL_SZ * MapConstants.MAP_WIDTH + 1 + MapConstants.MAP_OFFSET,
-                        MapConstants.MAP_CELL_SZ * MapConstants.MAP_HEIGHT + 1 + MapConstants.MAP_OFFSET);
+                newMapGrid = new Canvas(MapConstants.MAP_CELL_SZ * newExploredMap.getWidth() + 1 + MapConstants.MAP_OFFSET,
+                        MapConstants.MAP_CELL_SZ * newExploredMap.getHeight() + 1 + MapConstants.MAP_OFFSET);
                 newGC = newMapGrid.getGraphicsContext2D();
 
                 // Grid Settings for new map
@@ -502,6 +536,7 @@ public class SimulatorNew extends Application {
             public void handle(MouseEvent e) {
                 newExploredMap.setAllExplored(true);
                 mapDescriptor.saveRealMap(newExploredMap, defaultMapPath);
+                fitMapsTo(defaultMapPath);
                 map.resetMap();
                 exploredMap.resetMap();
                 mapDescriptor.loadRealMap(map, defaultMapPath);
@@ -516,6 +551,7 @@ public class SimulatorNew extends Application {
                 fileChooser.setTitle("Choose file to load Map from");
                 File file = fileChooser.showOpenDialog(primaryStage);
                 if (file != null) {
+                    fitMapsTo(file.getAbsolutePath());
                     map.resetMap();
                     exploredMap.resetMap();
                     mapDescriptor.loadRealMap(map, file.getAbsolutePath());
@@ -613,6 +649,9 @@ public class SimulatorNew extends Application {
         controlGrid.add(timerLbl, 3, 13, 2, 1);
         controlGrid.add(timerTextLbl, 3, 14, 2, 1);
 
+        controlGrid.add(metricsLbl, 0, 15, 5, 1);
+        controlGrid.add(metricsOutput, 0, 16, 5, 1);
+
         // Choosing where to place components on the Grid
         ColumnConstraints col1 = new ColumnConstraints();
         col1.setPercentWidth(40);
@@ -695,12 +734,12 @@ public class SimulatorNew extends Application {
         gc.setStroke(MapConstants.CW_COLOR);
         gc.setLineWidth(2);
         // Draw the Cells on the Map Canvas
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
+        for (int row = 0; row < exploredMap.getHeight(); row++) {
+            for (int col = 0; col < exploredMap.getWidth(); col++) {
                 // Select Color of the Cells
                 if (row <= MapConstants.STARTZONE_ROW + 1 && col <= MapConstants.STARTZONE_COL + 1)
                     gc.setFill(MapConstants.SZ_COLOR);
-                else if (row >= MapConstants.GOALZONE_ROW - 1 && col >= MapConstants.GOALZONE_COL - 1)
+                else if (row >= exploredMap.getGoalZoneRow() - 1 && col >= exploredMap.getGoalZoneCol() - 1)
                     gc.setFill(MapConstants.GZ_COLOR);
                 else {
 
@@ -728,11 +767,11 @@ public class SimulatorNew extends Application {
 
                 // Draw the Cell on the Map based on the Position Indicated
                 gc.strokeRect(col * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT - row * MapConstants.MAP_CELL_SZ
+                        (MapConstants.MAP_CELL_SZ - 1) * exploredMap.getHeight() - row * MapConstants.MAP_CELL_SZ
                                 + MapConstants.MAP_OFFSET / 2,
                         MapConstants.MAP_CELL_SZ, MapConstants.MAP_CELL_SZ);
                 gc.fillRect(col * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT - row * MapConstants.MAP_CELL_SZ
+                        (MapConstants.MAP_CELL_SZ - 1) * exploredMap.getHeight() - row * MapConstants.MAP_CELL_SZ
                                 + MapConstants.MAP_OFFSET / 2,
                         MapConstants.MAP_CELL_SZ, MapConstants.MAP_CELL_SZ);
             }
@@ -741,14 +780,14 @@ public class SimulatorNew extends Application {
             if (wayPoint != null) {
                 gc.setFill(MapConstants.WP_COLOR);
                 gc.fillRect(wayPoint.getX() * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT
+                        (MapConstants.MAP_CELL_SZ - 1) * exploredMap.getHeight()
                                 - wayPoint.getY() * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
                         MapConstants.MAP_CELL_SZ, MapConstants.MAP_CELL_SZ);
                 gc.setFill(Color.BLACK);
                 gc.fillText("W",
                         wayPoint.getX() * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2
                                 + MapConstants.CELL_CM / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT
+                        (MapConstants.MAP_CELL_SZ - 1) * exploredMap.getHeight()
                                 - (wayPoint.getY() - 1) * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2
                                 - MapConstants.CELL_CM / 2);
             }
@@ -763,12 +802,12 @@ public class SimulatorNew extends Application {
         newGC.setLineWidth(2);
 
         // Draw the Cells on the Map Canvas
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
+        for (int row = 0; row < newExploredMap.getHeight(); row++) {
+            for (int col = 0; col < newExploredMap.getWidth(); col++) {
                 // Select Color of the Cells
                 if (row <= MapConstants.STARTZONE_ROW + 1 && col <= MapConstants.STARTZONE_COL + 1)
                     newGC.setFill(MapConstants.SZ_COLOR);
-                else if (row >= MapConstants.GOALZONE_ROW - 1 && col >= MapConstants.GOALZONE_COL - 1)
+                else if (row >= newExploredMap.getGoalZoneRow() - 1 && col >= newExploredMap.getGoalZoneCol() - 1)
                     newGC.setFill(MapConstants.GZ_COLOR);
                 else {
                     if (alreadyExplored) {
@@ -797,11 +836,11 @@ public class SimulatorNew extends Application {
 
                 // Draw the Cell on the Map based on the Position Indicated
                 newGC.strokeRect(col * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT - row * MapConstants.MAP_CELL_SZ
+                        (MapConstants.MAP_CELL_SZ - 1) * newExploredMap.getHeight() - row * MapConstants.MAP_CELL_SZ
                                 + MapConstants.MAP_OFFSET / 2,
                         MapConstants.MAP_CELL_SZ, MapConstants.MAP_CELL_SZ);
                 newGC.fillRect(col * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT - row * MapConstants.MAP_CELL_SZ
+                        (MapConstants.MAP_CELL_SZ - 1) * newExploredMap.getHeight() - row * MapConstants.MAP_CELL_SZ
                                 + MapConstants.MAP_OFFSET / 2,
                         MapConstants.MAP_CELL_SZ, MapConstants.MAP_CELL_SZ);
             }
@@ -810,14 +849,14 @@ public class SimulatorNew extends Application {
             if (wayPoint != null) {
                 newGC.setFill(MapConstants.WP_COLOR);
                 newGC.fillRect(wayPoint.getX() * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT
+                        (MapConstants.MAP_CELL_SZ - 1) * newExploredMap.getHeight()
                                 - wayPoint.getY() * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
                         MapConstants.MAP_CELL_SZ, MapConstants.MAP_CELL_SZ);
                 newGC.setFill(Color.BLACK);
                 newGC.fillText("W",
                         wayPoint.getX() * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2
                                 + MapConstants.CELL_CM / 2,
-                        (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT
+                        (MapConstants.MAP_CELL_SZ - 1) * newExploredMap.getHeight()
                                 - (wayPoint.getY() - 1) * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2
                                 - MapConstants.CELL_CM / 2);
             }
@@ -837,7 +876,7 @@ public class SimulatorNew extends Application {
             Boolean isMainMap = false;
 
             int selectedCol = (int) ((mouseX - MapConstants.MAP_OFFSET / 2) / MapConstants.MAP_CELL_SZ);
-            int selectedRow = (int) (MapConstants.MAP_HEIGHT
+            int selectedRow = (int) (exploredMap.getHeight()
                     - (mouseY - MapConstants.MAP_OFFSET / 2) / MapConstants.MAP_CELL_SZ);
             // Debug Text
             System.out.println(map.getCell(selectedRow, selectedCol).toString() + " validMove:"
@@ -864,7 +903,7 @@ public class SimulatorNew extends Application {
 
 
             int selectedCol = (int) ((mouseX - MapConstants.MAP_OFFSET / 2) / MapConstants.MAP_CELL_SZ);
-            int selectedRow = (int) (MapConstants.MAP_HEIGHT
+            int selectedRow = (int) (newExploredMap.getHeight()
                     - (mouseY - MapConstants.MAP_OFFSET / 2) / MapConstants.MAP_CELL_SZ);
             // Debug Text
             System.out.println(newExploredMap.getCell(selectedRow, selectedCol).toString() + " validMove:"
@@ -920,8 +959,8 @@ public class SimulatorNew extends Application {
 
     // Reinit virtual walls around obstacle
     private void reinitVirtualWall() {
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
+        for (int row = 0; row < map.getHeight(); row++) {
+            for (int col = 0; col < map.getWidth(); col++) {
                 if (map.getCell(row, col).isObstacle()) {
                     for (int r = row - 1; r <= row + 1; r++)
                         for (int c = col - 1; c <= col + 1; c++)
@@ -1150,59 +1189,18 @@ public class SimulatorNew extends Application {
 
     class FastTask extends Task<Integer> {
 
-        public String getFastTaskCmd(ArrayList<Command> commands) {
-            Command tempCmd;
-            int moves = 0;
-            StringBuilder cmdBuilder = new StringBuilder();
-            for (int i = 0; i < commands.size(); i++) {
-                tempCmd = commands.get(i);
-                if (tempCmd == Command.FORWARD && moves < RobotConstants.MAX_MOVE) {
-                    moves++;
-
-                    // if last cmd or moves == 9
-                    if (i == commands.size() - 1 || moves == RobotConstants.MAX_MOVE) {
-                        cmdBuilder.append(Command.ArduinoMove.values()[tempCmd.ordinal()]);
-                        cmdBuilder.append(moves);
-                        cmdBuilder.append('|');
-                        moves = 0;
-                    }
-                }
-                else {  // not forward
-                    if (moves > 0) {    // previous forward, append the forward moves first
-                        cmdBuilder.append(Command.ArduinoMove.values()[Command.FORWARD.ordinal()]);
-                        cmdBuilder.append(moves);
-                        cmdBuilder.append('|');
-
-                    }
-
-//                    // align_front first and align_right then turn
-//                    cmdBuilder.append(Command.ArduinoMove.values()[Command.ALIGN_FRONT.ordinal()]);
-//                    cmdBuilder.append(1);
-//                    cmdBuilder.append('|');
-//
-//                    // align_right
-//                    cmdBuilder.append(Command.ArduinoMove.values()[Command.ALIGN_RIGHT.ordinal()]);
-//                    cmdBuilder.append('1');
-//                    cmdBuilder.append('|');
-
-
-                    // turning
-                    cmdBuilder.append(Command.ArduinoMove.values()[tempCmd.ordinal()]);
-                    cmdBuilder.append('1');
-                    cmdBuilder.append('|');
-
 
-                    moves = 0;
-                }
+        @Override
+        protected Integer call() throws Exception {
+            RunProfiler profiler = RunProfiler.begin("fastestPath");
+            try {
+                return fastestPathRun();
+            } finally {
+                RunProfiler.end(profiler);
             }
-
-            String cmds = cmdBuilder.toString();
-            return cmds;
         }
 
-
-        @Override
-        protected Integer call() throws Exception {
+        private Integer fastestPathRun() throws Exception {
 
             // calculate the path and make the first turn (if any) first during the 1min interval to save time
             double startT = System.currentTimeMillis();
@@ -1210,19 +1208,26 @@ public class SimulatorNew extends Application {
             FastestPath fp = new FastestPath(exploredMap, robot, sim);
             ArrayList<Cell> path;
 //			if (wayPoint.distance(MapConstants.GOALZONE) != 0) {
-            path = fp.runAStar(new Point(robot.getPos().x, robot.getPos().y), wayPoint, robot.getDir());
-            path.addAll(fp.runAStar(wayPoint, new Point(MapConstants.GOALZONE_COL, MapConstants.GOALZONE_ROW), robot.getDir()));
+            // cheapest path through the waypoint to the goal, keeping the heading at the waypoint; the map does not
+            // change any more, so all the costs are computed once and the path is looked up, unless the map is too
+            // large for the table
+            PathPlanner planner = DistanceOracle.supports(exploredMap) ? DistanceOracle.get(exploredMap) :
+                    new WaypointPlanner(exploredMap);
+            path = planner.plan(new Point(robot.getPos().x, robot.getPos().y), robot.getDir(),
+                    Arrays.asList(wayPoint, new Point(exploredMap.getGoalZoneCol(), exploredMap.getGoalZoneRow())));
 //			} else
 //				path = fp.run(new Point(robot.getPos().x, robot.getPos().y), MapConstants.GOALZONE,
 //						robot.getDir());
 
             fp.displayFastestPath(path, true);
 
-            // TODO: check to send one single command or one by one
-            ArrayList<Command> commands = fp.getPathCommands(path);
+            // compile the path into long moves, backward moves and turns under the motion cost model
+            MotionCompiler compiler = new MotionCompiler(loadMotionModel());
+            ArrayList<MotionCompiler.Motion> motions = compiler.compile(robot.getPos(), robot.getDir(), path);
+            LOGGER.info(String.format("Motions: %s (%.0f ms, %s)", motions, compiler.getCost(motions), compiler.getModel()));
 
             // execute the first command if it is turning
-            Command firstCmd = commands.get(0);
+            Command firstCmd = motions.isEmpty() ? null : motions.get(0).getCmd();
             if (firstCmd == Command.TURN_RIGHT) {
                 robot.turn(firstCmd, RobotConstants.STEP_PER_SECOND);
 
@@ -1237,11 +1242,11 @@ public class SimulatorNew extends Application {
                     netMgr.send(NetworkConstants.ARDUINO + alignRightCmdStr);
                     netMgr.receive();   // to flush out sensor reading
                 }
-                // remove it from commands ArrayList
-                commands.remove(0);
+                // remove it from the motions
+                motions.remove(0);
             }
 
-            String cmd = getFastTaskCmd(commands);
+            String cmd = MotionCompiler.toCommandString(motions);
             LOGGER.info("Checking FPCmdString: " + cmd);
 
             robot.setStatus("Ready to start fastest path. Waiting for command.\n");
@@ -1284,6 +1289,7 @@ public class SimulatorNew extends Application {
                 }
                 switch (firstChar) {
                     case 'W':
+                    case 'F':
                         if (sim) {
                             robot.move(Command.FORWARD, move, exploredMap, steps);
                         }
@@ -1294,6 +1300,7 @@ public class SimulatorNew extends Application {
                         }
                         break;
                     case 'S':
+                    case 'B':
                         if (sim) {
                             robot.move(Command.BACKWARD, move, exploredMap, steps);
                         }
@@ -1428,6 +1435,44 @@ public class SimulatorNew extends Application {
         }
     }
 
+    /**
+     * Rebuild map and exploredMap, and resize the map canvas, if the arena of a map file has another size
+     * @param filename map file, with a size line for an arena other than the default one
+     */
+    private void fitMapsTo(String filename) {
+        try {
+            mapDescriptor.setHexMapStr(filename);
+        } catch (IOException e) {
+            LOGGER.warning("Cannot read the map file " + filename + ": " + e.toString());
+            return;
+        }
+        if (map.getHeight() == mapDescriptor.getHeight() && map.getWidth() == mapDescriptor.getWidth()) {
+            return;
+        }
+        LOGGER.info(String.format("Arena of %dx%d cells", mapDescriptor.getHeight(), mapDescriptor.getWidth()));
+        map = mapDescriptor.createMap();
+        map.setAllExplored(true);
+        exploredMap = mapDescriptor.createMap();
+        robot.setStartPos(robot.getPos().y, robot.getPos().x, exploredMap);
+        mapGrid.setWidth(MapConstants.MAP_CELL_SZ * exploredMap.getWidth() + 1 + MapConstants.MAP_OFFSET);
+        mapGrid.setHeight(MapConstants.MAP_CELL_SZ * exploredMap.getHeight() + 1 + MapConstants.MAP_OFFSET);
+    }
+
+    /**
+     * @return motion cost model of -Dmdp.motion.model=<file.json> if set, the default model otherwise
+     */
+    private MotionCostModel loadMotionModel() {
+        String filename = System.getProperty("mdp.motion.model");
+        if (filename != null) {
+            try {
+                return MotionCostModel.load(filename);
+            } catch (IOException e) {
+                LOGGER.warning("Cannot load motion cost model, using the default one: " + e.toString());
+            }
+        }
+        return MotionCostModel.defaults();
+    }
+
     //TODO: Algo with focus on image
     class ImageTask extends Task<Integer> {
         @Override
@@ -1513,10 +1558,10 @@ public class SimulatorNew extends Application {
         startPosTxt.setText(String.format("(%d, %d)", 1, 1));
         if (wayPoint != null)
             exploredMap.getCell(wayPoint).setWayPoint(false);
-        wayPoint.setLocation(MapConstants.GOALZONE_COL, MapConstants.GOALZONE_ROW);
+        wayPoint.setLocation(exploredMap.getGoalZoneCol(), exploredMap.getGoalZoneRow());
 //            if (!setObstacle)
 //                expMapDraw = false;
-        wayPointTxt.setText(String.format("(%d, %d)", MapConstants.GOALZONE_COL, MapConstants.GOALZONE_ROW));
+        wayPointTxt.setText(String.format("(%d, %d)", exploredMap.getGoalZoneCol(), exploredMap.getGoalZoneRow()));
         rightRB.setSelected(true);
         // TODO starting direction is right
         robot = new Robot(sim, false, 1, 1, Direction.RIGHT);
@@ -1536,11 +1581,11 @@ public class SimulatorNew extends Application {
         int dirCol = 0, dirRow = 0;
 
         gc.strokeOval(col * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT - row * MapConstants.MAP_CELL_SZ
+                (MapConstants.MAP_CELL_SZ - 1) * exploredMap.getHeight() - row * MapConstants.MAP_CELL_SZ
                         + MapConstants.MAP_OFFSET / 2,
                 3 * MapConstants.MAP_CELL_SZ, 3 * MapConstants.MAP_CELL_SZ);
         gc.fillOval(col * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT - row * MapConstants.MAP_CELL_SZ
+                (MapConstants.MAP_CELL_SZ - 1) * exploredMap.getHeight() - row * MapConstants.MAP_CELL_SZ
                         + MapConstants.MAP_OFFSET / 2,
                 3 * MapConstants.MAP_CELL_SZ, 3 * MapConstants.MAP_CELL_SZ);
 
@@ -1564,7 +1609,7 @@ public class SimulatorNew extends Application {
                 break;
         }
         gc.fillOval(dirCol * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                (MapConstants.MAP_CELL_SZ - 1) * MapConstants.MAP_HEIGHT - dirRow * MapConstants.MAP_CELL_SZ
+                (MapConstants.MAP_CELL_SZ - 1) * exploredMap.getHeight() - dirRow * MapConstants.MAP_CELL_SZ
                         + MapConstants.MAP_OFFSET / 2,
                 MapConstants.MAP_CELL_SZ, MapConstants.MAP_CELL_SZ);
 
@@ -1572,7 +1617,7 @@ public class SimulatorNew extends Application {
         for (String sname : robot.getSensorList()) {
             Sensor s = robot.getSensorMap().get(sname);
             gc.fillText(s.getId(), s.getCol() * MapConstants.MAP_CELL_SZ + MapConstants.MAP_OFFSET / 2,
-                    (MapConstants.MAP_CELL_SZ) * MapConstants.MAP_HEIGHT - s.getRow() * MapConstants.MAP_CELL_SZ
+                    (MapConstants.MAP_CELL_SZ) * exploredMap.getHeight() - s.getRow() * MapConstants.MAP_CELL_SZ
                             + MapConstants.MAP_OFFSET / 2);
         }
 
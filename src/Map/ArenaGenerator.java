@@ -0,0 +1,317 @@
+package Map;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Generate random fully explored arenas for load testing the exploration and the planners.
+ * Obstacles are laid as corridor walls (straight lines with a gap the robot can pass) and then as
+ * single blocks, placed next to an existing obstacle with probability clustering. The start and goal
+ * zones are kept free and the goal zone must be reachable from the start zone by the robot, checked
+ * by a flood fill over the robot centre positions which are clear of the inflated obstacles.
+ * Each arena only depends on the seed and its index, so the output does not depend on the number of threads.
+ */
+public class ArenaGenerator {
+
+    private static final Logger LOGGER = Logger.getLogger(ArenaGenerator.class.getName());
+
+    private static final int MAX_ATTEMPTS = 1000;
+    // number of arenas generated before they are written, bounds the memory used for large counts
+    private static final int BATCH_SIZE = 4096;
+
+    private final int height;
+    private final int width;
+    private final double density;
+    private final double clustering;
+    private final int corridors;
+
+    /**
+     * @param height number of rows
+     * @param width number of cols
+     * @param density fraction of the cells inside the border walls which are obstacles, 0 to 1
+     * @param clustering probability that an obstacle is placed next to an existing one, 0 to 1
+     * @param corridors number of corridor walls
+     */
+    public ArenaGenerator(int height, int width, double density, double clustering, int corridors) {
+        if (density < 0 || density >= 1 || clustering < 0 || clustering > 1 || corridors < 0) {
+            throw new IllegalArgumentException(String.format("Invalid generator parameters density=%f clustering=%f corridors=%d",
+                    density, clustering, corridors));
+        }
+        // validates the size
+        new Map(height, width);
+        this.height = height;
+        this.width = width;
+        this.density = density;
+        this.clustering = clustering;
+        this.corridors = corridors;
+    }
+
+    public ArenaGenerator(double density, double clustering, int corridors) {
+        this(MapConstants.MAP_HEIGHT, MapConstants.MAP_WIDTH, density, clustering, corridors);
+    }
+
+    /**
+     * Generate the index-th arena of a seed
+     * @param seed
+     * @param index
+     * @return fully explored Map with obstacles and their virtual walls
+     */
+    public Map generate(long seed, long index) {
+        Random random = new Random(mix(seed, index));
+        boolean[] obstacles = new boolean[height * width];
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            layObstacles(random, obstacles);
+            if (goalReachable(obstacles)) {
+                return toMap(obstacles);
+            }
+        }
+        throw new IllegalStateException(String.format("No solvable arena found after %d attempts, density %f is too high",
+                MAX_ATTEMPTS, density));
+    }
+
+    /**
+     * SplitMix64 of the seed and index, so that consecutive indexes give unrelated Random sequences
+     */
+    private static long mix(long seed, long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @return true if no obstacle can be placed in the cell, i.e. the cell is in the start or goal zone
+     */
+    private boolean isReserved(int row, int col) {
+        boolean start = Math.abs(row - MapConstants.STARTZONE_ROW) <= 1 && Math.abs(col - MapConstants.STARTZONE_COL) <= 1;
+        boolean goal = Math.abs(row - (height - 2)) <= 1 && Math.abs(col - (width - 2)) <= 1;
+        return start || goal;
+    }
+
+    private void layObstacles(Random random, boolean[] obstacles) {
+        Arrays.fill(obstacles, false);
+        int target = (int) Math.round(density * height * width);
+        int[] placed = new int[target];
+        int count = 0;
+
+        // corridor walls, leaving a gap of 3 cells so that the robot can pass
+        for (int i = 0; i < corridors && count < target; i++) {
+            boolean horizontal = random.nextBoolean();
+            int length = horizontal ? width : height;
+            int line = 2 + random.nextInt(Math.max(1, (horizontal ? height : width) - 4));
+            int gap = random.nextInt(Math.max(1, length - 3));
+            int start = random.nextInt(length);
+            int end = Math.min(length, start + length / 2 + random.nextInt(length / 2 + 1));
+            for (int k = start; k < end && count < target; k++) {
+                if (k >= gap && k < gap + 3) {
+                    continue;
+                }
+                int row = horizontal ? line : k;
+                int col = horizontal ? k : line;
+                int idx = row * width + col;
+                if (!obstacles[idx] && !isReserved(row, col)) {
+                    obstacles[idx] = true;
+                    placed[count++] = idx;
+                }
+            }
+        }
+
+        // single blocks, clustered next to the placed obstacles or anywhere
+        int misses = 0;
+        while (count < target && misses < 100 * (target + 1)) {
+            int row, col;
+            if (count > 0 && random.nextDouble() < clustering) {
+                int from = placed[random.nextInt(count)];
+                int dir = random.nextInt(4);
+                row = from / width + (dir == 0 ? 1 : dir == 1 ? -1 : 0);
+                col = from % width + (dir == 2 ? 1 : dir == 3 ? -1 : 0);
+            }
+            else {
+                row = random.nextInt(height);
+                col = random.nextInt(width);
+            }
+            int idx = row * width + col;
+            if (row < 0 || col < 0 || row >= height || col >= width || obstacles[idx] || isReserved(row, col)) {
+                misses++;
+                continue;
+            }
+            obstacles[idx] = true;
+            placed[count++] = idx;
+        }
+    }
+
+    /**
+     * Flood fill from the start zone over the robot centres which are not virtual walls
+     * @param obstacles
+     * @return true if the centre of the goal zone is reached
+     */
+    private boolean goalReachable(boolean[] obstacles) {
+        // a centre is blocked if it is on the border or next to an obstacle, as for the virtual walls of Map
+        boolean[] blocked = new boolean[height * width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                if (row == 0 || col == 0 || row == height - 1 || col == width - 1) {
+                    blocked[row * width + col] = true;
+                }
+                if (obstacles[row * width + col]) {
+                    for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+                        for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                            blocked[r * width + c] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        int start = MapConstants.STARTZONE_ROW * width + MapConstants.STARTZONE_COL;
+        int goal = (height - 2) * width + (width - 2);
+        int[] queue = new int[height * width];
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        blocked[start] = true;
+        while (head < tail) {
+            int cur = queue[head++];
+            if (cur == goal) {
+                return true;
+            }
+            // border cells are blocked, so the neighbours of a reached cell are always inside the map
+            int[] next = {cur - width, cur + width, cur - 1, cur + 1};
+            for (int n : next) {
+                if (!blocked[n]) {
+                    blocked[n] = true;
+                    queue[tail++] = n;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Map toMap(boolean[] obstacles) {
+        Map map = new Map(height, width);
+        map.setAllExplored(true);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                if (obstacles[row * width + col]) {
+                    Cell cell = map.getCell(row, col);
+                    cell.setObstacle(true);
+                    map.setVirtualWall(cell, true);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Generate arenas first to last - 1 of a seed in parallel, in index order
+     * @param executor
+     * @param seed
+     * @param first
+     * @param last
+     * @return
+     */
+    private ArrayList<Map> generateBatch(ExecutorService executor, final long seed, long first, long last)
+            throws InterruptedException {
+        ArrayList<Future<Map>> futures = new ArrayList<Future<Map>>();
+        for (long i = first; i < last; i++) {
+            final long index = i;
+            futures.add(executor.submit(() -> generate(seed, index)));
+        }
+        ArrayList<Map> maps = new ArrayList<Map>(futures.size());
+        try {
+            for (Future<Map> future : futures) {
+                maps.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return maps;
+    }
+
+    /**
+     * Write count arenas of the seed to a binary corpus, see MapCorpus
+     * @param filename
+     * @param seed
+     * @param count
+     * @param threads number of generating threads
+     */
+    public void generateCorpus(String filename, long seed, int count, int threads) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (MapCorpusWriter writer = new MapCorpusWriter(filename, height, width)) {
+            for (long first = 0; first < count; first += BATCH_SIZE) {
+                for (Map map : generateBatch(executor, seed, first, Math.min(count, first + BATCH_SIZE))) {
+                    writer.add(map);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Write count arenas of the seed as MDF files arena_<index>.txt in a directory
+     * @param dirname
+     * @param seed
+     * @param count
+     * @param threads number of generating threads
+     */
+    public void generateMDF(String dirname, long seed, int count, int threads) throws InterruptedException {
+        File dir = new File(dirname);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warning("Cannot create directory " + dirname);
+            return;
+        }
+        MapDescriptor mdf = new MapDescriptor();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (long first = 0; first < count; first += BATCH_SIZE) {
+                long index = first;
+                for (Map map : generateBatch(executor, seed, first, Math.min(count, first + BATCH_SIZE))) {
+                    mdf.saveRealMap(map, new File(dir, String.format("arena_%d.txt", index++)).getPath());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        LOGGER.info(String.format("%d arenas of %dx%d written to %s", count, height, width, dirname));
+    }
+
+    /**
+     * Usage: ArenaGenerator output count [seed] [density] [clustering] [corridors] [height] [width]
+     * the output is a binary corpus if it ends with .corpus, else a directory of MDF files
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: ArenaGenerator output count [seed] [density] [clustering] [corridors] [height] [width]");
+            return;
+        }
+        String output = args[0];
+        int count = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double density = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+        double clustering = args.length > 4 ? Double.parseDouble(args[4]) : 0.5;
+        int corridors = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+        int height = args.length > 6 ? Integer.parseInt(args[6]) : MapConstants.MAP_HEIGHT;
+        int width = args.length > 7 ? Integer.parseInt(args[7]) : MapConstants.MAP_WIDTH;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        ArenaGenerator generator = new ArenaGenerator(height, width, density, clustering, corridors);
+        long start = System.currentTimeMillis();
+        if (output.endsWith(".corpus")) {
+            generator.generateCorpus(output, seed, count, threads);
+        }
+        else {
+            generator.generateMDF(output, seed, count, threads);
+        }
+        LOGGER.info(String.format("Generated %d arenas in %d ms", count, System.currentTimeMillis() - start));
+    }
+}
@@ -2,22 +2,29 @@ package Map;
 
 import java.awt.Point;
 
+/**
+ * A cell of the arena. Cells obtained from a Map are views on the layer bits stored in the map's tiles,
+ * two views of the same map position are equal. Cells constructed on their own keep their layers locally.
+ */
 public class Cell {
     // Position Variables
     private Point pos;
 
-    // Exploration Booleans
-    private boolean explored;
-    private boolean obstacle;
-    private boolean virtualWall;
-    private boolean wayPoint;
-    private boolean moveThru;
-    private boolean path;
+    // Map owning the cell, null for a standalone cell
+    private final Map map;
+    // Exploration layers of a standalone cell, see MapTile for the bits
+    private byte bits;
 
     // Constructor
     public Cell(Point pos) {
         this.pos = pos;
-        this.explored = false;  // initially all cells are unexplored
+        this.map = null;
+        this.bits = 0;  // initially all cells are unexplored
+    }
+
+    Cell(Map map, int row, int col) {
+        this.pos = new Point(col, row);
+        this.map = map;
     }
 
     // Getters and Setters
@@ -30,65 +37,101 @@ public class Cell {
     }
 
     public boolean isExplored() {
-        return explored;
+        return get(MapTile.EXPLORED);
     }
 
     public void setExplored(boolean explored) {
-        this.explored = explored;
+        set(MapTile.EXPLORED, explored);
     }
 
     public boolean isObstacle() {
-        return obstacle;
+        return get(MapTile.OBSTACLE);
     }
 
     public void setObstacle(boolean obstacle) {
-        this.obstacle = obstacle;
+        set(MapTile.OBSTACLE, obstacle);
     }
 
     public boolean isVirtualWall() {
-        return virtualWall;
+        return get(MapTile.VIRTUAL_WALL);
     }
 
     public void setVirtualWall(boolean virtualWall) {
-        this.virtualWall = virtualWall;
+        set(MapTile.VIRTUAL_WALL, virtualWall);
     }
 
     public boolean isWayPoint() {
-        return wayPoint;
+        return get(MapTile.WAY_POINT);
     }
 
     public boolean setWayPoint(boolean isWayPoint) {
-        if(!obstacle && explored && !virtualWall) {
-            this.wayPoint = isWayPoint;
+        if(!isObstacle() && isExplored() && !isVirtualWall()) {
+            set(MapTile.WAY_POINT, isWayPoint);
             return true;
         }
         return false;
     }
 
     public boolean isMoveThru() {
-        return moveThru;
+        return get(MapTile.MOVE_THRU);
     }
 
     public void setMoveThru(boolean moveThru) {
-        this.moveThru = moveThru;
+        set(MapTile.MOVE_THRU, moveThru);
     }
 
     public boolean isPath() {
-        return path;
+        return get(MapTile.PATH);
     }
 
     public void setPath(boolean path) {
-        this.path = path;
+        set(MapTile.PATH, path);
+    }
+
+    private boolean get(int layer) {
+        if (map != null) {
+            return map.getLayer(pos.y, pos.x, layer);
+        }
+        return (bits & layer) != 0;
+    }
+
+    private void set(int layer, boolean value) {
+        if (map != null) {
+            map.setLayer(pos.y, pos.x, layer, value);
+        }
+        else if (value) {
+            bits |= layer;
+        }
+        else {
+            bits &= ~layer;
+        }
     }
 
     // Cell is movable is it has been explored and it is not obstacle or virtual wall
     public boolean movableCell() {
-        return explored && !obstacle && !virtualWall;
+        return isExplored() && !isObstacle() && !isVirtualWall();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Cell)) {
+            return false;
+        }
+        Cell other = (Cell) o;
+        return map != null && map == other.map && pos.equals(other.pos);
+    }
+
+    @Override
+    public int hashCode() {
+        return map != null ? pos.hashCode() : System.identityHashCode(this);
     }
 
     @Override
     public String toString() {
-        return "Cell [pos=" + pos + ", explored=" + explored + ", obstacle=" + obstacle + ", virtualWall=" + virtualWall
-                + ", isWayPoint=" + wayPoint + ", moveThru=" + moveThru + ", path=" + path + "]";
+        return "Cell [pos=" + pos + ", explored=" + isExplored() + ", obstacle=" + isObstacle() + ", virtualWall=" + isVirtualWall()
+                + ", isWayPoint=" + isWayPoint() + ", moveThru=" + isMoveThru() + ", path=" + isPath() + "]";
     }
 }
@@ -0,0 +1,129 @@
+package Map;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Breadth-first distance field from a single source cell over the cells the robot can move to
+ * (see Map.checkValidMove). Distances are in grid steps, -1 if the cell cannot be reached.
+ * The cells are also kept in the order they were visited, i.e. in increasing distance.
+ */
+public class DistanceField {
+
+    public static final int UNREACHABLE = -1;
+
+    private final int height;
+    private final int width;
+    private final Point source;
+    private int version;            // layer version of the map the field was computed on
+    private final int[] dist;
+    private final int[] order;      // packed cell index (row * width + col) in visiting order
+    private int size;
+
+    public DistanceField(Map map, Point source) {
+        this.height = map.getHeight();
+        this.width = map.getWidth();
+        this.source = new Point(source);
+        this.dist = new int[height * width];
+        this.order = new int[height * width];
+        compute(map);
+    }
+
+    /**
+     * Recompute the field in place for a new source, reusing the arrays
+     * @param map
+     * @param source
+     */
+    void recompute(Map map, Point source) {
+        this.source.setLocation(source);
+        compute(map);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    private void compute(Map map) {
+        version = map.getLayerVersion();
+        Arrays.fill(dist, UNREACHABLE);
+        size = 0;
+        if (!map.checkValidCell(source.y, source.x)) {
+            return;
+        }
+
+        // the robot's own cell is always the source even if it is not a valid move
+        int start = source.y * width + source.x;
+        dist[start] = 0;
+        order[size++] = start;
+
+        int head = 0;
+        while (head < size) {
+            int cur = order[head++];
+            int row = cur / width;
+            int col = cur % width;
+            int next = dist[cur] + 1;
+            visit(map, row + 1, col, next);
+            visit(map, row - 1, col, next);
+            visit(map, row, col - 1, next);
+            visit(map, row, col + 1, next);
+        }
+    }
+
+    private void visit(Map map, int row, int col, int d) {
+        if (map.checkValidMove(row, col)) {
+            int idx = row * width + col;
+            if (dist[idx] == UNREACHABLE) {
+                dist[idx] = d;
+                order[size++] = idx;
+            }
+        }
+    }
+
+    public Point getSource() {
+        return source;
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @return number of steps from the source, -1 if unreachable or outside the map
+     */
+    public int getDistance(int row, int col) {
+        if (row < 0 || col < 0 || row >= height || col >= width) {
+            return UNREACHABLE;
+        }
+        return dist[row * width + col];
+    }
+
+    public int getDistance(Point pos) {
+        return getDistance(pos.y, pos.x);
+    }
+
+    public boolean isReachable(int row, int col) {
+        return getDistance(row, col) != UNREACHABLE;
+    }
+
+    /**
+     * @return number of cells reached, including the source
+     */
+    public int getReachableCount() {
+        return size;
+    }
+
+    /**
+     * Get the i-th reached cell in increasing distance
+     * @param i 0 <= i < getReachableCount()
+     * @return packed cell index, row = index / width, col = index % width
+     */
+    public int getOrderedIndex(int i) {
+        return order[i];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
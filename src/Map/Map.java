@@ -10,28 +10,73 @@ import java.util.HashSet;
 
 public class Map {
 
-    private final Cell[][] grid;
+    private final int height;
+    private final int width;
+    // cells are stored in MapTile.SIZE x MapTile.SIZE tiles, null until a cell of the tile is first set
+    private final int tileRows;
+    private final int tileCols;
+    private MapTile[] tiles;
     private double exploredPercentage;
 
+    // bumped whenever the explored, obstacle or virtual wall layer of any cell changes
+    private int layerVersion = 0;
+    // distance field from the robot shared by all proximity queries, see getDistanceField
+    private DistanceField distanceField;
+    // occupancy log-odds (x100) of each cell from the sensor readings, 0 if unknown, see addOccupancy
+    private short[] occupancy;
+
+    /**
+     * Construct the default arena of MapConstants.MAP_HEIGHT x MapConstants.MAP_WIDTH
+     */
     public Map() {
-        grid = new Cell[MapConstants.MAP_HEIGHT][MapConstants.MAP_WIDTH];
+        this(MapConstants.MAP_HEIGHT, MapConstants.MAP_WIDTH);
+    }
+
+    /**
+     * Construct an arena of the given size, the start zone stays at the bottom left corner and
+     * the goal zone at the top right corner
+     * @param height number of rows
+     * @param width number of cols
+     */
+    public Map(int height, int width) {
+        if (height < 3 || width < 3) {
+            throw new IllegalArgumentException(String.format("Invalid map size %dx%d", height, width));
+        }
+        this.height = height;
+        this.width = width;
+        this.tileRows = (height + MapTile.MASK) >> MapTile.SHIFT;
+        this.tileCols = (width + MapTile.MASK) >> MapTile.SHIFT;
         initMap();
     }
 
     private void initMap() {
-        // Init Cells on the grid
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                grid[row][col] = new Cell(new Point(col, row));
-
-                // Init virtual wall
-                if (row == 0 || col == 0 || row == MapConstants.MAP_HEIGHT - 1 || col == MapConstants.MAP_WIDTH - 1) {
-                    grid[row][col].setVirtualWall(true);
-                }
-            }
+        tiles = new MapTile[tileRows * tileCols];
+        occupancy = new short[height * width];
+        // Init virtual wall
+        for (int col = 0; col < width; col++) {
+            setLayer(0, col, MapTile.VIRTUAL_WALL, true);
+            setLayer(height - 1, col, MapTile.VIRTUAL_WALL, true);
+        }
+        for (int row = 1; row < height - 1; row++) {
+            setLayer(row, 0, MapTile.VIRTUAL_WALL, true);
+            setLayer(row, width - 1, MapTile.VIRTUAL_WALL, true);
         }
         exploredPercentage = 0.00;
+        layerChanged();
+    }
 
+    /**
+     * @return map with the same layers and layer version, e.g. to plan on in another thread while this one changes
+     */
+    public Map copy() {
+        Map map = new Map(height, width);
+        for (int t = 0; t < tiles.length; t++) {
+            map.tiles[t] = tiles[t] != null ? tiles[t].copy() : null;
+        }
+        System.arraycopy(occupancy, 0, map.occupancy, 0, occupancy.length);
+        map.exploredPercentage = exploredPercentage;
+        map.layerVersion = layerVersion;
+        return map;
     }
 
     public void resetMap() {
@@ -43,15 +88,12 @@ public class Map {
      * @param explored
      */
     public void setAllExplored(boolean explored) {
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                grid[row][col].setExplored(explored);
-            }
-        }
         if (explored) {
+            setLayerAll(MapTile.EXPLORED);
             exploredPercentage = 100.00;
         }
         else {
+            clearLayer(MapTile.EXPLORED);
             exploredPercentage = 0.00;
         }
     }
@@ -61,10 +103,11 @@ public class Map {
      * @param moveThru
      */
     public void setAllMoveThru(boolean moveThru) {
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                grid[row][col].setMoveThru(moveThru);
-            }
+        if (moveThru) {
+            setLayerAll(MapTile.MOVE_THRU);
+        }
+        else {
+            clearLayer(MapTile.MOVE_THRU);
         }
     }
 
@@ -78,27 +121,76 @@ public class Map {
     }
 
     private void updateExploredPercentage() {
-        double total = MapConstants.MAP_HEIGHT * MapConstants.MAP_WIDTH;
+        double total = height * width;
         double explored = 0;
 
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                if (grid[row][col].isExplored())
-                    explored++;
+        for (MapTile tile : tiles) {
+            if (tile != null) {
+                explored += tile.count(MapTile.EXPLORED);
             }
         }
 
         this.exploredPercentage = explored / total * 100;
     }
 
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getGoalZoneRow() {
+        return height - 2;
+    }
+
+    public int getGoalZoneCol() {
+        return width - 2;
+    }
+
+    /**
+     * Called when the explored, obstacle or virtual wall layer of a cell changes
+     */
+    void layerChanged() {
+        layerVersion++;
+    }
+
+    /**
+     * @return version of the explored/obstacle/virtual wall layers, changes whenever one of them changes
+     */
+    public int getLayerVersion() {
+        return layerVersion;
+    }
+
+    /**
+     * Get the distance field from the robot location. The field is computed lazily and cached,
+     * it is only recomputed when the robot has moved or the map layers have changed since.
+     * The returned field is reused (overwritten) by the next recomputation.
+     * @param botLoc location of the robot
+     * @return
+     */
+    public DistanceField getDistanceField(Point botLoc) {
+        if (distanceField == null) {
+            distanceField = new DistanceField(this, botLoc);
+        }
+        else if (distanceField.getVersion() != layerVersion || !distanceField.getSource().equals(botLoc)) {
+            distanceField.recompute(this, botLoc);
+        }
+        return distanceField;
+    }
+
     /**
-     * Get cell using row and col
+     * Get cell using row and col. The cell is a view on the layers stored in the map, cells of a tile
+     * which has never been written are not kept and a new (equal) view is returned on every call.
      * @param row
      * @param col
      * @return
      */
     public Cell getCell(int row, int col) {
-        return grid[row][col];
+        checkCellIndex(row, col);
+        MapTile tile = tiles[tileIndex(row, col)];
+        return tile != null ? tile.getCell(this, row, col) : new Cell(this, row, col);
     }
 
     /**
@@ -107,7 +199,159 @@ public class Map {
      * @return
      */
     public Cell getCell(Point pos) {
-        return grid[pos.y][pos.x];
+        return getCell(pos.y, pos.x);
+    }
+
+    public boolean isExplored(int row, int col) {
+        return getLayer(row, col, MapTile.EXPLORED);
+    }
+
+    public boolean isObstacle(int row, int col) {
+        return getLayer(row, col, MapTile.OBSTACLE);
+    }
+
+    public boolean isVirtualWall(int row, int col) {
+        return getLayer(row, col, MapTile.VIRTUAL_WALL);
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @param layer one of the MapTile layer bits
+     * @return true if the layer is set for the cell
+     */
+    boolean getLayer(int row, int col, int layer) {
+        checkCellIndex(row, col);
+        MapTile tile = tiles[tileIndex(row, col)];
+        return tile != null && tile.get(MapTile.index(row, col), layer);
+    }
+
+    /**
+     * Set a layer of a cell, allocating its tile if needed
+     * @param row
+     * @param col
+     * @param layer one of the MapTile layer bits
+     * @param value
+     */
+    void setLayer(int row, int col, int layer, boolean value) {
+        checkCellIndex(row, col);
+        int t = tileIndex(row, col);
+        MapTile tile = tiles[t];
+        if (tile == null) {
+            if (!value) {
+                return;
+            }
+            tile = new MapTile(tileCellCount(t));
+            tiles[t] = tile;
+        }
+        if (tile.set(MapTile.index(row, col), layer, value)
+                && (layer & (MapTile.EXPLORED | MapTile.OBSTACLE | MapTile.VIRTUAL_WALL)) != 0) {
+            layerChanged();
+        }
+    }
+
+    /**
+     * Add the log-odds of a sensor reading to the occupancy of a cell, within +-RobotConstants.MAX_LOG_ODDS.
+     * The obstacle layer is not changed, see Robot.updateMap.
+     * @param row
+     * @param col
+     * @param logOdds
+     * @return new occupancy log-odds of the cell
+     */
+    public int addOccupancy(int row, int col, int logOdds) {
+        checkCellIndex(row, col);
+        int i = row * width + col;
+        int value = Math.max(-RobotConstants.MAX_LOG_ODDS, Math.min(RobotConstants.MAX_LOG_ODDS, occupancy[i] + logOdds));
+        occupancy[i] = (short) value;
+        return value;
+    }
+
+    /**
+     * @return occupancy log-odds (x100) of a cell, positive if more likely an obstacle
+     */
+    public int getOccupancy(int row, int col) {
+        checkCellIndex(row, col);
+        return occupancy[row * width + col];
+    }
+
+    private void checkCellIndex(int row, int col) {
+        if (!checkValidCell(row, col)) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Cell (%d, %d) outside %dx%d map", row, col, height, width));
+        }
+    }
+
+    private int tileIndex(int row, int col) {
+        return (row >> MapTile.SHIFT) * tileCols + (col >> MapTile.SHIFT);
+    }
+
+    /**
+     * @param t tile index
+     * @return number of cells of the tile inside the map
+     */
+    private int tileCellCount(int t) {
+        int rows = Math.min(MapTile.SIZE, height - (t / tileCols << MapTile.SHIFT));
+        int cols = Math.min(MapTile.SIZE, width - (t % tileCols << MapTile.SHIFT));
+        return rows * cols;
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @return the tile of the cell, null if it has not been allocated
+     */
+    private MapTile tileAt(int row, int col) {
+        return tiles[tileIndex(row, col)];
+    }
+
+    private void setLayerAll(int layer) {
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                setLayer(row, col, layer, true);
+            }
+        }
+    }
+
+    /**
+     * Unset a layer of all cells, only visiting the tiles where it is set
+     * @param layer
+     */
+    private void clearLayer(int layer) {
+        for (int t = 0; t < tiles.length; t++) {
+            MapTile tile = tiles[t];
+            if (tile == null || tile.isNone(layer)) {
+                continue;
+            }
+            int rowStart = t / tileCols << MapTile.SHIFT;
+            int colStart = t % tileCols << MapTile.SHIFT;
+            int rowEnd = Math.min(rowStart + MapTile.SIZE, height);
+            int colEnd = Math.min(colStart + MapTile.SIZE, width);
+            for (int row = rowStart; row < rowEnd && !tile.isNone(layer); row++) {
+                for (int col = colStart; col < colEnd; col++) {
+                    setLayer(row, col, layer, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get all obstacle cells in row major order, tiles without obstacle are skipped
+     * @return
+     */
+    public ArrayList<Cell> getObstacleCells() {
+        ArrayList<Cell> obstacles = new ArrayList<Cell>();
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                MapTile tile = tileAt(row, col);
+                if (tile == null || tile.isNone(MapTile.OBSTACLE)) {
+                    col |= MapTile.MASK;    // skip to the last col of the tile
+                    continue;
+                }
+                if (tile.get(MapTile.index(row, col), MapTile.OBSTACLE)) {
+                    obstacles.add(tile.getCell(this, row, col));
+                }
+            }
+        }
+        return obstacles;
     }
 
     /**
@@ -117,7 +361,7 @@ public class Map {
      * @return
      */
     public boolean checkValidCell(int row, int col) {
-        return row >= 0 && col >= 0 && row < MapConstants.MAP_HEIGHT && col < MapConstants.MAP_WIDTH;
+        return row >= 0 && col >= 0 && row < height && col < width;
     }
 
     /**
@@ -127,8 +371,15 @@ public class Map {
      * @return true if the cell is valid, explored and not a virtual wall or obstacle
      */
     public boolean checkValidMove(int row, int col) {
-//        System.out.println("DEBUG: " + getCell(row, col).isVirtualWall());
-        return checkValidCell(row, col) && !getCell(row, col).isVirtualWall() && !getCell(row, col).isObstacle() && getCell(row,col).isExplored();
+        if (!checkValidCell(row, col)) {
+            return false;
+        }
+        MapTile tile = tileAt(row, col);
+        if (tile == null) {
+            return false;
+        }
+        int index = MapTile.index(row, col);
+        return !tile.get(index, MapTile.VIRTUAL_WALL) && !tile.get(index, MapTile.OBSTACLE) && tile.get(index, MapTile.EXPLORED);
     }
 
     /**
@@ -139,7 +390,7 @@ public class Map {
     public void setPassThru(int row,int col) {
         for(int r = row - 1; r <= row + 1; r++) {
             for(int c = col - 1; c <= col + 1; c++) {
-                grid[r][c].setMoveThru(true);
+                setLayer(r, c, MapTile.MOVE_THRU, true);
             }
         }
     }
@@ -152,7 +403,7 @@ public class Map {
         for (int r = obstacle.getPos().y - 1; r <= obstacle.getPos().y + 1; r++) {
             for (int c = obstacle.getPos().x - 1; c <= obstacle.getPos().x + 1; c++) {
                 if(checkValidCell(r, c)) {
-                    grid[r][c].setVirtualWall(isVirtualWall);
+                    setLayer(r, c, MapTile.VIRTUAL_WALL, isVirtualWall);
                 }
             }
         }
@@ -239,7 +490,7 @@ public class Map {
      * @return true if the way point is not a virtual wall or obstacle (unreachable)
      */
     public boolean wayPointClear(int row, int col) {
-        return checkValidCell(row, col) && !getCell(row, col).isVirtualWall() && !getCell(row, col).isObstacle();
+        return checkValidCell(row, col) && !isVirtualWall(row, col) && !isObstacle(row, col);
     }
 
     /**
@@ -251,7 +502,7 @@ public class Map {
     public boolean clearForRobot(int row, int col) {
         for (int r = row - 1; r <= row + 1; r++) {
             for (int c = col - 1; c <= col + 1; c++) {
-                if (!checkValidCell(r,c) || !grid[r][c].isExplored() || grid[r][c].isObstacle())
+                if (!checkValidCell(r,c) || !getLayer(r, c, MapTile.EXPLORED) || getLayer(r, c, MapTile.OBSTACLE))
                     return false;
             }
         }
@@ -259,17 +510,38 @@ public class Map {
     }
 
     /**
-     * Return the nearest unexplored cell from a location
-     * @param loc Point location
+     * Return the nearest unexplored cell from a location by path cost, i.e. the unexplored cell
+     * which is within 2 cells (edge of the robot + 1) of the nearest reachable robot position.
+     * Fall back to straight line distance if no unexplored cell is next to a reachable position.
+     * @param loc Point location of the robot
      * @return nearest unexplored Cell, null if there isnt one
      */
     public Cell nearestUnexplored(Point loc) {
+        DistanceField field = getDistanceField(loc);
+        for (int i = 0; i < field.getReachableCount(); i++) {
+            int idx = field.getOrderedIndex(i);
+            int botRow = idx / width;
+            int botCol = idx % width;
+            for (int row = botRow - 2; row <= botRow + 2; row++) {
+                for (int col = botCol - 2; col <= botCol + 2; col++) {
+                    if (checkValidCell(row, col) && !getLayer(row, col, MapTile.EXPLORED)) {
+                        return getCell(row, col);
+                    }
+                }
+            }
+        }
+
         double dist = 1000, tempDist;
         Cell nearest = null, tempCell;
 
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                tempCell = grid[row][col];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                MapTile tile = tileAt(row, col);
+                if (tile != null && tile.isAll(MapTile.EXPLORED)) {
+                    col |= MapTile.MASK;    // skip to the last col of the tile
+                    continue;
+                }
+                tempCell = getCell(row, col);
                 tempDist = loc.distance(tempCell.getPos());
                 if ((!tempCell.isExplored()) && (tempDist < dist)) {
                     nearest = tempCell;
@@ -307,87 +579,103 @@ public class Map {
         return n;
     }
 
+    /**
+     * Return the untaken surface with the nearest capture pose by path cost from the robot
+     * @param loc location of the robot
+     * @param notYetTaken
+     * @return nearest reachable surface, nearest by straight line distance if none is reachable
+     */
     public ObsSurface nearestObsSurface(Point loc, HashMap<String, ObsSurface> notYetTaken) {
+        DistanceField field = getDistanceField(loc);
+        int pathDist = Integer.MAX_VALUE, tempPathDist;
         double dist = 1000, tempDist;
-        Point tempPos;
-        ObsSurface nearest = null;
+        ObsSurface nearest = null, nearestByLine = null;
 
         for (ObsSurface obstacle: notYetTaken.values()) {
-//            tempPos = obstacle.getPos();
-            // neighbour cell of that surface
-            tempPos = getNeighbour(obstacle.getPos(), obstacle.getSurface());
-            tempDist = loc.distance(tempPos);
+            for (int idx : SurfaceIndex.capturePoses(obstacle, height, width)) {
+                tempPathDist = field.getDistance(idx / width, idx % width);
+                if (tempPathDist != DistanceField.UNREACHABLE && tempPathDist < pathDist) {
+                    pathDist = tempPathDist;
+                    nearest = obstacle;
+                }
+            }
+            // neighbour cell of that surface, in case none of the surfaces can be reached
+            int rowInc = obstacle.getSurface() == Direction.UP ? 1 : obstacle.getSurface() == Direction.DOWN ? -1 : 0;
+            int colInc = obstacle.getSurface() == Direction.RIGHT ? 1 : obstacle.getSurface() == Direction.LEFT ? -1 : 0;
+            tempDist = Point.distance(loc.x, loc.y, obstacle.getCol() + colInc, obstacle.getRow() + rowInc);
             if (tempDist < dist) {
                 dist = tempDist;
-                nearest = obstacle;
+                nearestByLine = obstacle;
             }
         }
-        return nearest;
+        return nearest != null ? nearest : nearestByLine;
     }
 
 
-    public Cell nearestMovable(ObsSurface obsSurface) {
-        double distance = 1000, tempDist;
-        Cell nearest = null;
-        Cell tempCell;
-        int rowInc = 0, colInc = 0;
-        int obsRow = obsSurface.getRow();
-        int obsCol = obsSurface.getCol();
-        switch (obsSurface.getSurface()) {
-            case UP:
-                rowInc = 1;
-                colInc = 0;
-                break;
-            case DOWN:
-                rowInc = -1;
-                colInc = 0;
-                break;
-            case LEFT:
-                colInc = -1;
-                rowInc = 0;
-                break;
-            case RIGHT:
-                colInc = 1;
-                rowInc = 0;
-                break;
+    /**
+     * Return the untaken surface with the nearest capture pose by path cost from the source of the field
+     * @param field distance field from the robot, recomputed after every robot move
+     * @param index untaken surfaces
+     * @return nearest reachable surface, any surface left if none is reachable, null if index is empty
+     */
+    public ObsSurface nearestObsSurface(DistanceField field, SurfaceIndex index) {
+        if (index.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < field.getReachableCount(); i++) {
+            int idx = field.getOrderedIndex(i);
+            ArrayList<ObsSurface> bucket = index.getSurfaces(idx / width, idx % width);
+            if (bucket != null && !bucket.isEmpty()) {
+                return bucket.get(0);
+            }
         }
 
-        // up or down
-        if (rowInc != 0) {
-            for (int row = obsRow + 2 * rowInc; row <= obsRow + 3 * rowInc; row++) {
-                for (int col = obsCol - 1; col <= obsCol + 1; col++) {
-                    if (checkValidMove(row, col)) {
-                        tempCell = grid[row][col];
-                        tempDist = obsSurface.getPos().distance(tempCell.getPos());
-                        if (distance > tempDist) {
-                            nearest = tempCell;
-                            distance = tempDist;
-                        }
-                    }
+        // none of the surfaces left can be reached, return any so that it can be removed
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                ArrayList<ObsSurface> bucket = index.getSurfaces(row, col);
+                if (bucket != null && !bucket.isEmpty()) {
+                    return bucket.get(0);
                 }
             }
         }
+        return null;
+    }
 
-        else if (colInc != 0) {
-            for (int col = obsCol + 2 * colInc; col <= obsCol + 3 * colInc; col++) {
-                for (int row = obsRow - 1; row <= obsRow + 1; row++) {
-                    if (checkValidMove(row, col)) {
-                        tempCell = grid[row][col];
-                        tempDist = obsSurface.getPos().distance(tempCell.getPos());
-                        if (distance > tempDist) {
-                            nearest = tempCell;
-                            distance = tempDist;
-                        }
-                    }
-                }
+    /**
+     * Return the capture pose of the surface with the lowest path cost from the source of the field
+     * @param obsSurface
+     * @param field distance field from the robot
+     * @return nearest reachable capture pose, null if there isnt one
+     */
+    public Cell nearestMovable(ObsSurface obsSurface, DistanceField field) {
+        int bestDist = Integer.MAX_VALUE, tempDist;
+        Cell nearest = null;
+        for (int idx : SurfaceIndex.capturePoses(obsSurface, height, width)) {
+            tempDist = field.getDistance(idx / width, idx % width);
+            if (tempDist != DistanceField.UNREACHABLE && tempDist < bestDist) {
+                bestDist = tempDist;
+                nearest = getCell(idx / width, idx % width);
             }
         }
         return nearest;
     }
 
+    /**
+     * Return the capture pose of the surface with the lowest path cost from the robot
+     * @param obsSurface
+     * @param botLoc location of the robot
+     * @return nearest reachable capture pose, null if there isnt one
+     */
+    public Cell nearestMovable(ObsSurface obsSurface, Point botLoc) {
+        return nearestMovable(obsSurface, getDistanceField(botLoc));
+    }
+
 
-    public Cell nearestMovableOld(Point obsLoc) {
+    public Cell nearestMovableOld(Point obsLoc, Point botLoc) {
+        DistanceField field = getDistanceField(botLoc);
         double distance = 1000, tempDist;
+        int pathDist = Integer.MAX_VALUE;
         Cell nearest = null;
         Cell tempCell;
 
@@ -396,17 +684,15 @@ public class Map {
 
         for (int row = obsRow - 2; row <= obsRow + 2; row++) {
             for (int col = obsCol - 3; col <= obsCol + 3; col++) {
-                if (checkValidCell(row, col)) {
-                    tempCell = grid[row][col];
-                    if (checkValidMove(row, col) && clearForRobot(row, col)) {
-//                    if ((distance > obsLoc.distance(tempCell.getPos()) && tempCell.getPos().distance(botLoc) > 0)) {       // actually no need to check for botLoc
-                        if (distance > obsLoc.distance(tempCell.getPos())) {       // actually no need to check for botLoc
-                            nearest = tempCell;
-                            distance = obsLoc.distance(tempCell.getPos());
-                        }
+                if (field.isReachable(row, col) && clearForRobot(row, col)) {
+                    tempCell = getCell(row, col);
+                    tempDist = obsLoc.distance(tempCell.getPos());
+                    if (distance > tempDist || (distance == tempDist && pathDist > field.getDistance(row, col))) {
+                        nearest = tempCell;
+                        distance = tempDist;
+                        pathDist = field.getDistance(row, col);
                     }
                 }
-
             }
         }
         return nearest;
@@ -415,29 +701,52 @@ public class Map {
 
 
     /**
-     * Return the nearest explored but not move through cell given the nearest unexplored cell
+     * Return the nearest explored but not move through cell given the nearest unexplored cell.
+     * Only cells reachable from the robot are considered, ties are broken by path cost from the robot.
      * @param loc nearest unexplored point location
      * @param botLoc location of the robot
      * @return nearest explored Cell, null if there isnt one
      */
     public Cell nearestExplored(Point loc, Point botLoc) {
-        Cell cell, nearest = null;
-        double distance = 1000;
-        double botDistance = 1000;
-
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                cell = grid[row][col];
-                if (checkValidMove(row, col) && clearForRobot(row, col) && notAreaMoveThru(row, col)) {
-                    if ((distance > loc.distance(cell.getPos()) && cell.getPos().distance(botLoc) < botDistance)) {       // actually no need to check for botLoc
-                        nearest = cell;
-                        distance = loc.distance(cell.getPos());
-                        botDistance = cell.getPos().distance(botLoc);
+        ArrayList<Cell> candidates = nearestExplored(loc, botLoc, 1);
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    /**
+     * Return the n nearest explored but not move through cells given the nearest unexplored cell, in the order of
+     * nearestExplored (the first one is the nearest explored cell).
+     * @param loc nearest unexplored point location
+     * @param botLoc location of the robot
+     * @param n number of cells
+     * @return at most n cells, nearest first
+     */
+    public ArrayList<Cell> nearestExplored(Point loc, Point botLoc, int n) {
+        DistanceField field = getDistanceField(botLoc);
+        ArrayList<Cell> nearest = new ArrayList<Cell>(n + 1);
+        ArrayList<double[]> keys = new ArrayList<double[]>(n + 1);     // (distance, path cost from the robot)
+
+        for (int i = 0; i < field.getReachableCount(); i++) {
+            int idx = field.getOrderedIndex(i);
+            int row = idx / width;
+            int col = idx % width;
+            if (clearForRobot(row, col) && notAreaMoveThru(row, col)) {
+                double[] key = {loc.distance(col, row), field.getDistance(row, col)};
+                // insertion after the equal keys keeps the first of the ties, as the order of the field
+                int pos = keys.size();
+                while (pos > 0 && (keys.get(pos - 1)[0] > key[0] ||
+                        (keys.get(pos - 1)[0] == key[0] && keys.get(pos - 1)[1] > key[1]))) {
+                    pos--;
+                }
+                if (pos < n) {
+                    keys.add(pos, key);
+                    nearest.add(pos, getCell(row, col));
+                    if (keys.size() > n) {
+                        keys.remove(n);
+                        nearest.remove(n);
                     }
                 }
             }
         }
-        System.out.println(nearest);
         return nearest;
     }
 
@@ -450,7 +759,7 @@ public class Map {
     public boolean notAreaMoveThru(int row, int col) {
         for (int r = row - 1; r <= row + 1; r++) {
             for (int c = col - 1; c <= col + 1; c++) {
-                if (!grid[r][c].isMoveThru()) {
+                if (!getLayer(r, c, MapTile.MOVE_THRU)) {
                     return true;
                 }
             }
@@ -462,11 +771,7 @@ public class Map {
      * Remove existing cell with path
      */
     public void removeAllPaths() {
-        for (int r = 0; r < MapConstants.MAP_HEIGHT; r++) {
-            for (int c = 0; c < MapConstants.MAP_WIDTH; c++) {
-                grid[r][c].setPath(false);
-            }
-        }
+        clearLayer(MapTile.PATH);
     }
 
     /**
@@ -495,19 +800,17 @@ public class Map {
      * reinit virtual wall when removing phanton blocks
      */
     public void reinitVirtualWall() {
-        for (int row = 0; row < MapConstants.MAP_HEIGHT; row++) {
-            for (int col = 0; col < MapConstants.MAP_WIDTH; col++) {
-                // Init Virtual wall
-                if (row == 0 || col == 0 || row == MapConstants.MAP_HEIGHT - 1 || col == MapConstants.MAP_WIDTH - 1) {
-                    grid[row][col].setVirtualWall(true);
-                }
-                if (grid[row][col].isObstacle()) {
-                    for (int r = row - 1; r <= row + 1; r++)
-                        for (int c = col - 1; c <= col + 1; c++)
-                            if (checkValidCell(r, c))
-                                grid[r][c].setVirtualWall(true);
-                }
-            }
+        // Init Virtual wall
+        for (int col = 0; col < width; col++) {
+            setLayer(0, col, MapTile.VIRTUAL_WALL, true);
+            setLayer(height - 1, col, MapTile.VIRTUAL_WALL, true);
+        }
+        for (int row = 1; row < height - 1; row++) {
+            setLayer(row, 0, MapTile.VIRTUAL_WALL, true);
+            setLayer(row, width - 1, MapTile.VIRTUAL_WALL, true);
+        }
+        for (Cell obstacle : getObstacleCells()) {
+            setVirtualWall(obstacle, true);
         }
     }
 }
@@ -6,6 +6,7 @@ public class MapConstants {
 
     // Public Map Variables
     public static final short CELL_CM = 10;
+    // Default arena size, the actual size of an arena is given by Map.getHeight() and Map.getWidth()
     public static final short MAP_HEIGHT = 20;
     public static final short MAP_WIDTH = 15;
     public static final short GOALZONE_ROW = MAP_HEIGHT - 2;
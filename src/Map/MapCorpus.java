@@ -0,0 +1,220 @@
+package Map;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Read-only binary corpus of maps of the same size, memory mapped so that any map can be read by index
+ * without parsing. Reads only use absolute positions, so a corpus can be shared by several worker threads.
+ *
+ * Format (big endian):
+ *   header: int MAGIC, int VERSION, int height, int width, int count
+ *   count records of two bitplanes, explored then obstacle, of (height * width + 7) / 8 bytes each.
+ *   Cell (r, c) is bit r * width + c of a plane, most significant bit of each byte first.
+ */
+public class MapCorpus implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(MapCorpus.class.getName());
+
+    public static final int MAGIC = 0x4D445043;     // "MDPC"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 20;
+
+    private final FileChannel channel;
+    private final int height;
+    private final int width;
+    private final int count;
+    private final int planeBytes;
+    private final int recordBytes;
+    // a single mapping is limited to 2GB, so records are mapped in segments of whole records
+    private final int recordsPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    public MapCorpus(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read the whole header
+        }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException(filename + " is not a map corpus");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            channel.close();
+            throw new IOException(String.format("Unsupported map corpus version %d in %s", version, filename));
+        }
+        height = header.getInt();
+        width = header.getInt();
+        count = header.getInt();
+        planeBytes = planeBytes(height, width);
+        recordBytes = 2 * planeBytes;
+        if ((long) count * recordBytes + HEADER_BYTES > channel.size()) {
+            channel.close();
+            throw new IOException(String.format("Map corpus %s is truncated", filename));
+        }
+
+        recordsPerSegment = Math.max(1, Integer.MAX_VALUE / recordBytes);
+        segments = new MappedByteBuffer[(count + recordsPerSegment - 1) / recordsPerSegment];
+        for (int s = 0; s < segments.length; s++) {
+            int records = Math.min(recordsPerSegment, count - s * recordsPerSegment);
+            long start = HEADER_BYTES + (long) s * recordsPerSegment * recordBytes;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, (long) records * recordBytes);
+        }
+    }
+
+    /**
+     * @param height
+     * @param width
+     * @return number of bytes of one bitplane
+     */
+    static int planeBytes(int height, int width) {
+        return (height * width + 7) / 8;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public boolean isExplored(int index, int row, int col) {
+        return getBit(index, 0, row, col);
+    }
+
+    public boolean isObstacle(int index, int row, int col) {
+        return getBit(index, planeBytes, row, col);
+    }
+
+    private boolean getBit(int index, int planeOffset, int row, int col) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(String.format("Map %d not in corpus of %d maps", index, count));
+        }
+        int bit = row * width + col;
+        MappedByteBuffer segment = segments[index / recordsPerSegment];
+        int pos = (index % recordsPerSegment) * recordBytes + planeOffset + (bit >>> 3);
+        return (segment.get(pos) & (0x80 >>> (bit & 7))) != 0;
+    }
+
+    /**
+     * Load a map of the corpus, as MapDescriptor.loadRealMap does for an MDF file
+     * @param index index of the map in the corpus
+     * @param map initialized empty Map of the corpus size
+     */
+    public void loadMap(int index, Map map) {
+        if (map.getHeight() != height || map.getWidth() != width) {
+            LOGGER.warning("Map size does not match the corpus! Map not loaded!\n");
+            return;
+        }
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                if (isExplored(index, r, c)) {
+                    map.setLayer(r, c, MapTile.EXPLORED, true);
+                }
+            }
+        }
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                if (isObstacle(index, r, c)) {
+                    Cell cell = map.getCell(r, c);
+                    cell.setObstacle(true);
+                    // create virtual wall
+                    map.setVirtualWall(cell, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param index index of the map in the corpus
+     * @return new Map with the explored and obstacle layers of the map
+     */
+    public Map createMap(int index) {
+        Map map = new Map(height, width);
+        loadMap(index, map);
+        return map;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Convert MDF map files to a corpus.
+     * Usage: MapCorpus [output corpus] [MDF files or directories...],
+     * by default all the maps in src/Map/MapSamples are written to mapSamples.corpus
+     */
+    public static void main(String[] args) throws IOException {
+        String output = args.length > 0 ? args[0] : "mapSamples.corpus";
+        ArrayList<File> files = new ArrayList<File>();
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++) {
+                files.add(new File(args[i]));
+            }
+        }
+        else {
+            files.add(new File("src/Map/MapSamples"));
+        }
+
+        ArrayList<File> mapFiles = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+                if (children != null) {
+                    Arrays.sort(children);
+                    for (File child : children) {
+                        if (child.isFile() && child.getName().endsWith(".txt")) {
+                            mapFiles.add(child);
+                        }
+                    }
+                }
+            }
+            else {
+                mapFiles.add(file);
+            }
+        }
+        if (mapFiles.isEmpty()) {
+            LOGGER.warning("No MDF found! Corpus not written!\n");
+            return;
+        }
+
+        MapCorpusWriter writer = null;
+        try {
+            for (File file : mapFiles) {
+                MapDescriptor mdf = new MapDescriptor(file.getPath());
+                if (writer == null) {
+                    writer = new MapCorpusWriter(output, mdf.getHeight(), mdf.getWidth());
+                }
+                if (mdf.getHeight() != writer.getHeight() || mdf.getWidth() != writer.getWidth()) {
+                    LOGGER.warning(String.format("Skipping %s, size %dx%d", file, mdf.getHeight(), mdf.getWidth()));
+                    continue;
+                }
+                Map map = mdf.createMap();
+                mdf.loadRealMap(map);
+                writer.add(map);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package Map;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Write maps of the same size to a binary corpus file, see MapCorpus for the format.
+ * The map count in the header is written when the writer is closed.
+ */
+public class MapCorpusWriter implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(MapCorpusWriter.class.getName());
+
+    private final FileChannel channel;
+    private final int height;
+    private final int width;
+    private final ByteBuffer record;
+    private int count;
+
+    public MapCorpusWriter(String filename, int height, int width) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.height = height;
+        this.width = width;
+        this.record = ByteBuffer.allocate(2 * MapCorpus.planeBytes(height, width));
+        this.count = 0;
+        channel.write(header(), 0);
+        channel.position(MapCorpus.HEADER_BYTES);
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Append the explored and obstacle layers of the map
+     * @param map map of the corpus size
+     * @throws IOException
+     */
+    public void add(Map map) throws IOException {
+        if (map.getHeight() != height || map.getWidth() != width) {
+            throw new IllegalArgumentException(String.format("Map size %dx%d does not match corpus size %dx%d",
+                    map.getHeight(), map.getWidth(), height, width));
+        }
+        int planeBytes = record.capacity() / 2;
+        byte[] bytes = record.array();
+        Arrays.fill(bytes, (byte) 0);
+        int bit = 0;
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                int mask = 0x80 >>> (bit & 7);
+                if (map.isExplored(r, c)) {
+                    bytes[bit >>> 3] |= mask;
+                }
+                if (map.isObstacle(r, c)) {
+                    bytes[planeBytes + (bit >>> 3)] |= mask;
+                }
+                bit++;
+            }
+        }
+        record.clear();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        count++;
+    }
+
+    private ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(MapCorpus.HEADER_BYTES);
+        header.putInt(MapCorpus.MAGIC).putInt(MapCorpus.VERSION).putInt(height).putInt(width).putInt(count);
+        header.flip();
+        return header;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.write(header(), 0);
+        channel.close();
+        LOGGER.info(String.format("%d maps of %dx%d written", count, height, width));
+    }
+}
@@ -1,5 +1,8 @@
 package Map;
 
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+
 import java.io.*;
 import java.util.logging.*;
 
@@ -7,9 +10,17 @@ public class MapDescriptor {
 
     private static final Logger LOGGER = Logger.getLogger(MapDescriptor.class.getName());
 
+    private static final LatencyHistogram MDF1_LATENCY = Metrics.histogram("mdf.encode1");
+    private static final LatencyHistogram MDF2_LATENCY = Metrics.histogram("mdf.encode2");
+
+    // Optional first line of a map file giving the arena size for non default arenas, e.g. "#200x200"
+    public static final String SIZE_PREFIX = "#";
+
     private String hexMapStr1;
     private String hexMapStr2;
     private String filename;
+    private int height = MapConstants.MAP_HEIGHT;
+    private int width = MapConstants.MAP_WIDTH;
 
     /**
      * Construct Map descriptor for when there is no input real Map text file
@@ -43,18 +54,61 @@ public class MapDescriptor {
         this.filename = filename;
     }
 
+    /**
+     * @return number of rows of the arena in the map file
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of cols of the arena in the map file
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Create an empty Map of the arena size given in the map file
+     * @return
+     */
+    public Map createMap() {
+        return new Map(height, width);
+    }
+
     public void setHexMapStr(String filename) throws IOException {
         this.filename = filename;
 
         FileReader file = new FileReader(filename);
         BufferedReader buf = new BufferedReader(file);
 
-        hexMapStr1 = buf.readLine();
+        String line = buf.readLine();
+        height = MapConstants.MAP_HEIGHT;
+        width = MapConstants.MAP_WIDTH;
+        if (line != null && line.startsWith(SIZE_PREFIX)) {
+            String[] size = line.substring(SIZE_PREFIX.length()).trim().split("x");
+            height = Integer.parseInt(size[0].trim());
+            width = Integer.parseInt(size[1].trim());
+            line = buf.readLine();
+        }
+        hexMapStr1 = line;
         hexMapStr2 = buf.readLine();
 
         buf.close();
     }
 
+    /**
+     * Get the size line to be written before the MDF strings, empty for the default arena
+     * @param map
+     * @return
+     */
+    public String generateSizeString(Map map) {
+        if (map.getHeight() == MapConstants.MAP_HEIGHT && map.getWidth() == MapConstants.MAP_WIDTH) {
+            return "";
+        }
+        return String.format("%s%dx%d", SIZE_PREFIX, map.getHeight(), map.getWidth());
+    }
+
     /**
      * Right pad "0" to the binary string so that its length is in multiple of 8 (as required)
      * @param biStr
@@ -136,24 +190,25 @@ public class MapDescriptor {
      * @return
      */
     private String hexToBi(String hexStr) {
-        String biStr = "";
-        String tempBiStr = "";
+        StringBuilder biStr = new StringBuilder(hexStr.length() * 4);
         int tempDec;
         for (int i = 0; i < hexStr.length(); i++) {
-            tempDec = Integer.parseInt(Character.toString(hexStr.charAt(i)), 16);
-            tempBiStr = Integer.toBinaryString(tempDec);
-            biStr += leftPadTo4(tempBiStr);
+            tempDec = Character.digit(hexStr.charAt(i), 16);
+            for (int bit = 3; bit >= 0; bit--) {
+                biStr.append(((tempDec >> bit) & 1) == 1 ? '1' : '0');
+            }
         }
-        return biStr;
+        return biStr.toString();
     }
 
     public String generateMDFString1(Map map) {
+        long startNanos = System.nanoTime();
         StringBuilder MDFcreator1 = new StringBuilder();
         StringBuilder temp = new StringBuilder();
         temp.append("11");
-        for (int r = 0; r < MapConstants.MAP_HEIGHT; r++) {
-            for (int c = 0; c < MapConstants.MAP_WIDTH; c++) {
-                temp.append(map.getCell(r, c).isExplored() ? '1':'0');
+        for (int r = 0; r < map.getHeight(); r++) {
+            for (int c = 0; c < map.getWidth(); c++) {
+                temp.append(map.isExplored(r, c) ? '1':'0');
                 // convert to hex every 8 bits to avoid overflow
                 if(temp.length() == 4) {
                     MDFcreator1.append(biToHex(temp.toString()));
@@ -165,16 +220,18 @@ public class MapDescriptor {
         temp.append("11");
         MDFcreator1.append(biToHex(temp.toString()));
 
+        MDF1_LATENCY.recordSince(startNanos);
         return MDFcreator1.toString();
     }
 
     public String generateMDFString2(Map map) {
+        long startNanos = System.nanoTime();
         StringBuilder MDFcreator2 = new StringBuilder();
         StringBuilder temp = new StringBuilder();
-        for (int r = 0; r < MapConstants.MAP_HEIGHT; r++) {
-            for (int c = 0; c < MapConstants.MAP_WIDTH; c++) {
-                if (map.getCell(r, c).isExplored()) {
-                    temp.append(map.getCell(r, c).isObstacle() ? '1' : '0');
+        for (int r = 0; r < map.getHeight(); r++) {
+            for (int c = 0; c < map.getWidth(); c++) {
+                if (map.isExplored(r, c)) {
+                    temp.append(map.isObstacle(r, c) ? '1' : '0');
                     if (temp.length() == 4) {
                         MDFcreator2.append(biToHex(temp.toString()));
                         temp.setLength(0);
@@ -190,6 +247,7 @@ public class MapDescriptor {
             MDFcreator2.append(biToHex(tempBiStr));
         }
 
+        MDF2_LATENCY.recordSince(startNanos);
         return MDFcreator2.toString();
 
     }
@@ -202,8 +260,8 @@ public class MapDescriptor {
     private void loadMDFString1(String MDFstr1, Map map) {
         String expStr = hexToBi(MDFstr1);
         int index = 2;
-        for (int r = 0; r < MapConstants.MAP_HEIGHT; r++) {
-            for (int c = 0; c < MapConstants.MAP_WIDTH; c++) {
+        for (int r = 0; r < map.getHeight(); r++) {
+            for (int c = 0; c < map.getWidth(); c++) {
                 if (expStr.charAt(index) == '1') {
                     map.getCell(r, c).setExplored(true);
                 }
@@ -215,8 +273,8 @@ public class MapDescriptor {
     public void loadMDFString2(String MDFstr2, Map map) {
         String obsStr = hexToBi(MDFstr2);
         int index = 0;
-        for (int r = 0; r < MapConstants.MAP_HEIGHT; r++) {
-            for (int c = 0; c < MapConstants.MAP_WIDTH; c++) {
+        for (int r = 0; r < map.getHeight(); r++) {
+            for (int c = 0; c < map.getWidth(); c++) {
                 Cell cell = map.getCell(r, c);
                 if (cell.isExplored()) {
                     if (obsStr.charAt(index) == '1') {
@@ -239,6 +297,9 @@ public class MapDescriptor {
         if(filename == "") {
             LOGGER.warning("No MDF found! Map not loaded!\n");
         }
+        else if (!checkSize(map)) {
+            LOGGER.warning("Map size does not match the MDF! Map not loaded!\n");
+        }
         else {
             loadMDFString1(this.hexMapStr1, map);
             loadMDFString2(this.hexMapStr2, map);
@@ -253,16 +314,29 @@ public class MapDescriptor {
             LOGGER.warning("IOException");
             e.printStackTrace();
         }
+        if (!checkSize(map)) {
+            LOGGER.warning("Map size does not match the MDF! Map not loaded!\n");
+            return;
+        }
         loadMDFString1(this.hexMapStr1, map);
         loadMDFString2(this.hexMapStr2, map);
     }
 
+    private boolean checkSize(Map map) {
+        return map.getHeight() == height && map.getWidth() == width;
+    }
+
     public void saveRealMap(Map map, String filename) {
         try {
 
             FileWriter file = new FileWriter(filename);
 
             BufferedWriter buf = new BufferedWriter(file);
+            String sizeStr = generateSizeString(map);
+            if (!sizeStr.isEmpty()) {
+                buf.write(sizeStr);
+                buf.newLine();
+            }
             String mapDes = generateMDFString1(map);
             buf.write(mapDes);
             buf.newLine();
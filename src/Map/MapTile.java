@@ -0,0 +1,107 @@
+package Map;
+
+/**
+ * Square block of SIZE x SIZE cells of a Map. The layers of each cell are packed as bits in one byte,
+ * and the number of cells having each layer set is kept so that whole tiles can be skipped by the scans
+ * (e.g. a tile without obstacle, or a tile which is fully explored).
+ * Tiles are only allocated by the Map when one of their cells is first written.
+ */
+class MapTile {
+
+    static final int SHIFT = 4;
+    static final int SIZE = 1 << SHIFT;     // 16 x 16 cells
+    static final int MASK = SIZE - 1;
+
+    // Layer bits
+    static final int EXPLORED = 1;
+    static final int OBSTACLE = 1 << 1;
+    static final int VIRTUAL_WALL = 1 << 2;
+    static final int WAY_POINT = 1 << 3;
+    static final int MOVE_THRU = 1 << 4;
+    static final int PATH = 1 << 5;
+    private static final int LAYERS = 6;
+
+    private final byte[] bits = new byte[SIZE * SIZE];
+    private final int[] counts = new int[LAYERS];
+    private final int cellCount;    // cells of the tile inside the map, less than SIZE * SIZE for edge tiles
+    private Cell[] cells;           // Cell objects handed out by Map.getCell, created on demand
+
+    MapTile(int cellCount) {
+        this.cellCount = cellCount;
+    }
+
+    /**
+     * @param row row of the cell in the map
+     * @param col col of the cell in the map
+     * @return index of the cell in the tile
+     */
+    static int index(int row, int col) {
+        return ((row & MASK) << SHIFT) | (col & MASK);
+    }
+
+    boolean get(int index, int layer) {
+        return (bits[index] & layer) != 0;
+    }
+
+    /**
+     * @param index index of the cell in the tile
+     * @param layer one of the layer bits
+     * @param value
+     * @return true if the layer of the cell has changed
+     */
+    boolean set(int index, int layer, boolean value) {
+        boolean cur = (bits[index] & layer) != 0;
+        if (cur == value) {
+            return false;
+        }
+        if (value) {
+            bits[index] |= layer;
+            counts[Integer.numberOfTrailingZeros(layer)]++;
+        }
+        else {
+            bits[index] &= ~layer;
+            counts[Integer.numberOfTrailingZeros(layer)]--;
+        }
+        return true;
+    }
+
+    /**
+     * @param layer
+     * @return number of cells of the tile with the layer set
+     */
+    int count(int layer) {
+        return counts[Integer.numberOfTrailingZeros(layer)];
+    }
+
+    boolean isAll(int layer) {
+        return count(layer) == cellCount;
+    }
+
+    boolean isNone(int layer) {
+        return count(layer) == 0;
+    }
+
+    /**
+     * @return tile with the same layers, without the Cell views
+     */
+    MapTile copy() {
+        MapTile tile = new MapTile(cellCount);
+        System.arraycopy(bits, 0, tile.bits, 0, bits.length);
+        System.arraycopy(counts, 0, tile.counts, 0, counts.length);
+        return tile;
+    }
+
+    /**
+     * Synchronized, as the planners may read the cells of a map from several threads
+     */
+    synchronized Cell getCell(Map map, int row, int col) {
+        if (cells == null) {
+            cells = new Cell[SIZE * SIZE];
+        }
+        int index = index(row, col);
+        if (cells[index] == null) {
+            cells[index] = new Cell(map, row, col);
+        }
+        return cells[index];
+    }
+}
@@ -0,0 +1,103 @@
+package Map;
+
+/**
+ * Obstacle layer of a map packed in long bitplanes, with a border of obstacles around the map standing for the
+ * arena walls. There is one plane per Direction, with each line (row or col) stored in the order a sensor facing
+ * that direction reads it, so that any ray is a shift and a mask of two words and its nearest obstacle a
+ * numberOfTrailingZeros, instead of one cell lookup per range.
+ *
+ * The planes are a snapshot of the map when built.
+ */
+public class ObstacleBitplane {
+
+    private static final int HEADINGS = Direction.values().length;
+
+    private final int height;
+    private final int width;
+    // planes[dir]: line of the sensor cell, then one bit per cell in the direction of the sensor, from the border
+    // behind the map (bit 0) to the border after it; an extra word per line so that the second word read exists
+    private final long[][] planes = new long[HEADINGS][];
+    private final int[] words = new int[HEADINGS];
+    private final int[] lineBits = new int[HEADINGS];
+    // line = row * LINE_ROW[dir] + col * LINE_COL[dir] + 1, bit = row * BIT_ROW[dir] + col * BIT_COL[dir] + bitBase[dir]
+    private static final int[] LINE_ROW = {0, 1, 0, 1};
+    private static final int[] LINE_COL = {1, 0, 1, 0};
+    private static final int[] BIT_ROW = {1, 0, -1, 0};
+    private static final int[] BIT_COL = {0, -1, 0, 1};
+    private final int[] bitBase = new int[HEADINGS];
+
+    /**
+     * @param map
+     */
+    public ObstacleBitplane(Map map) {
+        this.height = map.getHeight();
+        this.width = map.getWidth();
+        for (Direction dir : Direction.values()) {
+            int d = dir.ordinal();
+            int lines = LINE_ROW[d] == 1 ? height + 2 : width + 2;
+            lineBits[d] = LINE_ROW[d] == 1 ? width + 2 : height + 2;
+            words[d] = ((lineBits[d] + 63) >>> 6) + 1;
+            planes[d] = new long[lines * words[d]];
+            // bit of the cell (0, 0)
+            bitBase[d] = BIT_ROW[d] + BIT_COL[d] < 0 ? lineBits[d] - 2 : 1;
+        }
+        for (int row = -1; row <= height; row++) {
+            for (int col = -1; col <= width; col++) {
+                if (row < 0 || col < 0 || row == height || col == width || map.isObstacle(row, col)) {
+                    for (int d = 0; d < HEADINGS; d++) {
+                        int bit = getBit(d, row, col);
+                        planes[d][getLine(d, row, col) * words[d] + (bit >>> 6)] |= 1L << bit;
+                    }
+                }
+            }
+        }
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Reading of a sensor at (row, col) facing dir, as Sensor.detect
+     * @param row row of the sensor, in the map
+     * @param col col of the sensor, in the map
+     * @param dir direction of the sensor
+     * @param minRange
+     * @param maxRange at most 63 cells after minRange
+     * @return range of the nearest obstacle or wall from minRange to maxRange, -1 if none
+     */
+    public int detect(int row, int col, Direction dir, int minRange, int maxRange) {
+        return detect(row, col, dir.ordinal(), minRange, maxRange);
+    }
+
+    /**
+     * detect with the ordinal of the direction
+     */
+    public int detect(int row, int col, int dir, int minRange, int maxRange) {
+        int start = getBit(dir, row, col) + minRange;
+        if (start >= lineBits[dir]) {
+            return -1;
+        }
+        long[] plane = planes[dir];
+        int index = getLine(dir, row, col) * words[dir] + (start >>> 6);
+        int shift = start & 63;
+        // the second word shifted in two steps, as a shift by 64 would be a shift by 0
+        long x = (plane[index] >>> shift) | ((plane[index + 1] << 1) << (63 - shift));
+        x &= -1L >>> (63 - (maxRange - minRange));
+        // without a branch on the data: trailing zeros of 0 is 64, which turns the reading into -1
+        int zeros = Long.numberOfTrailingZeros(x);
+        return (minRange + zeros) | -(zeros >>> 6);
+    }
+
+    private static int getLine(int dir, int row, int col) {
+        return row * LINE_ROW[dir] + col * LINE_COL[dir] + 1;
+    }
+
+    private int getBit(int dir, int row, int col) {
+        return row * BIT_ROW[dir] + col * BIT_COL[dir] + bitBase[dir];
+    }
+}
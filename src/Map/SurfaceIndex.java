@@ -0,0 +1,139 @@
+package Map;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Grid-bucketed index of obstacle surfaces that are not yet captured.
+ * Every surface is put in the bucket of each of its capture poses, i.e. the robot centres
+ * 2 to 3 cells away from the surface (and 1 cell to either side) from which the right-facing
+ * camera sees it. Together with a DistanceField, the nearest surface by path cost is found by
+ * walking the reachable cells in increasing distance until a non-empty bucket is hit, so the
+ * cost of a query does not depend on the number of surfaces left.
+ */
+public class SurfaceIndex {
+
+    private final int height;
+    private final int width;
+    private final ArrayList<ObsSurface>[] buckets;
+    private int size;
+
+    public SurfaceIndex(Map map, Collection<ObsSurface> surfaces) {
+        this.height = map.getHeight();
+        this.width = map.getWidth();
+        this.buckets = newBuckets(height * width);
+        this.size = 0;
+        for (ObsSurface obsSurface : surfaces) {
+            add(obsSurface);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayList<ObsSurface>[] newBuckets(int count) {
+        return new ArrayList[count];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(ObsSurface obsSurface) {
+        int[] poses = capturePoses(obsSurface);
+        for (int idx : poses) {
+            if (buckets[idx] == null) {
+                buckets[idx] = new ArrayList<ObsSurface>(2);
+            }
+            buckets[idx].add(obsSurface);
+        }
+        size++;
+    }
+
+    /**
+     * Remove the surface (matched by its row|col|surface key) from all its buckets
+     * @param obsSurface
+     * @return true if the surface was in the index
+     */
+    public boolean remove(ObsSurface obsSurface) {
+        boolean removed = false;
+        for (int idx : capturePoses(obsSurface)) {
+            ArrayList<ObsSurface> bucket = buckets[idx];
+            if (bucket == null) {
+                continue;
+            }
+            for (int i = 0; i < bucket.size(); i++) {
+                ObsSurface s = bucket.get(i);
+                if (s.getRow() == obsSurface.getRow() && s.getCol() == obsSurface.getCol()
+                        && s.getSurface() == obsSurface.getSurface()) {
+                    bucket.remove(i);
+                    removed = true;
+                    break;
+                }
+            }
+        }
+        if (removed) {
+            size--;
+        }
+        return removed;
+    }
+
+    /**
+     * Get the surfaces which can be captured with the robot centre at (row, col)
+     * @param row
+     * @param col
+     * @return bucket of surfaces, null or empty if there is none
+     */
+    public ArrayList<ObsSurface> getSurfaces(int row, int col) {
+        if (row < 0 || col < 0 || row >= height || col >= width) {
+            return null;
+        }
+        return buckets[row * width + col];
+    }
+
+    public int[] capturePoses(ObsSurface obsSurface) {
+        return capturePoses(obsSurface, height, width);
+    }
+
+    /**
+     * Packed cell indexes (row * width + col) of the capture poses of the surface which lie on the map
+     * @param obsSurface
+     * @param height map height
+     * @param width map width
+     * @return
+     */
+    public static int[] capturePoses(ObsSurface obsSurface, int height, int width) {
+        int[] poses = new int[6];
+        int n = 0;
+        int rowInc = 0, colInc = 0;
+        switch (obsSurface.getSurface()) {
+            case UP:
+                rowInc = 1;
+                break;
+            case DOWN:
+                rowInc = -1;
+                break;
+            case LEFT:
+                colInc = -1;
+                break;
+            case RIGHT:
+                colInc = 1;
+                break;
+        }
+
+        for (int away = 2; away <= 3; away++) {
+            for (int side = -1; side <= 1; side++) {
+                int row = obsSurface.getRow() + rowInc * away + colInc * side;
+                int col = obsSurface.getCol() + colInc * away + rowInc * side;
+                if (row >= 0 && col >= 0 && row < height && col < width) {
+                    poses[n++] = row * width + col;
+                }
+            }
+        }
+        int[] result = new int[n];
+        System.arraycopy(poses, 0, result, 0, n);
+        return result;
+    }
+}
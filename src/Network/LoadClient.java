@@ -0,0 +1,170 @@
+package Network;
+
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+import Robot.Command;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Load test of ServerSim: many concurrent sessions each replay the messages sent by the robot in a run journal,
+ * waiting for the sensor readings of every command as the robot does, and report their throughput.
+ */
+public class LoadClient {
+
+    private static final Logger LOGGER = Logger.getLogger(LoadClient.class.getName());
+
+    // Arduino commands answered with one line by the RPI: a sensor frame, or the reply to a stop
+    private static final String REPLIED_COMMANDS = repliedCommands();
+
+    private final ArrayList<String> messages = new ArrayList<String>();
+    private final String host;
+    private final int port;
+    private final LatencyHistogram roundTrip = Metrics.histogram("client.roundtrip");
+    private final AtomicLong totalMessages = new AtomicLong();
+
+    /**
+     * @param journal run journal giving the messages sent by each session
+     * @param host
+     * @param port
+     * @throws IOException
+     */
+    public LoadClient(String journal, String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
+        RunJournal reader = new RunJournal(journal);
+        RunJournal.Entry entry;
+        while ((entry = reader.next()) != null) {
+            if (entry.isSent()) {
+                messages.add(entry.getMsg());
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * @return letters of the Arduino commands, as sent by Robot.getCommand, answered with one line
+     */
+    private static String repliedCommands() {
+        StringBuilder letters = new StringBuilder();
+        for (Command.ArduinoMove move : Command.ArduinoMove.values()) {
+            Command cmd = Command.values()[move.ordinal()];
+            if (cmd.isSensing() || cmd == Command.STOP) {
+                letters.append(move.name());
+            }
+        }
+        return letters.toString();
+    }
+
+    /**
+     * @param msg message sent to the RPI
+     * @return number of lines the RPI answers with
+     */
+    static int expectedReadings(String msg) {
+        if (!msg.startsWith(NetworkConstants.ARDUINO)) {
+            return 0;
+        }
+        int readings = 0;
+        for (String cmd : msg.substring(1).split("\\|")) {
+            if (!cmd.isEmpty() && REPLIED_COMMANDS.indexOf(cmd.charAt(0)) >= 0) {
+                readings++;
+            }
+        }
+        return readings;
+    }
+
+    /**
+     * Run one session: wait for the start of the exploration, then send the messages of the journal
+     * @param sessionId
+     * @return summary of the session
+     * @throws IOException
+     */
+    String runSession(int sessionId) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        try {
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null && !line.equals(NetworkConstants.START_EXP));
+
+            long start = System.nanoTime();
+            for (String msg : messages) {
+                long sent = System.nanoTime();
+                out.write(msg);
+                out.newLine();
+                out.flush();
+                int readings = expectedReadings(msg);
+                for (int i = 0; i < readings; i++) {
+                    if (in.readLine() == null) {
+                        throw new IOException("Server closed the session");
+                    }
+                }
+                if (readings > 0) {
+                    roundTrip.recordSince(sent);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            totalMessages.addAndGet(messages.size());
+            return String.format("Session %d: %d messages in %.2f s (%.1f/s)", sessionId, messages.size(), seconds,
+                    messages.size() / seconds);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Run the sessions concurrently and wait for them
+     * @param sessions
+     * @throws InterruptedException
+     */
+    public void run(int sessions) throws InterruptedException {
+        ExecutorService executor = ServerSim.newSessionExecutor();
+        CountDownLatch done = new CountDownLatch(sessions);
+        long start = System.nanoTime();
+        for (int i = 1; i <= sessions; i++) {
+            final int sessionId = i;
+            executor.execute(() -> {
+                try {
+                    LOGGER.fine(runSession(sessionId));
+                } catch (IOException e) {
+                    LOGGER.warning(String.format("Session %d failed: %s", sessionId, e.toString()));
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d sessions, %d messages in %.2f s: %.1f messages/s, round trip p50 %.2f ms " +
+                        "p99 %.2f ms max %.2f ms", sessions, totalMessages.get(), seconds, totalMessages.get() / seconds,
+                roundTrip.getPercentile(50) / 1e6, roundTrip.getPercentile(99) / 1e6, roundTrip.getMax() / 1e6));
+    }
+
+    /**
+     * @param args journal [sessions, default 100] [host, default 127.0.0.1] [port]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: LoadClient <journal> [sessions] [host] [port]");
+            return;
+        }
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : NetworkConstants.PORT;
+        new LoadClient(args[0], host, port).run(sessions);
+    }
+}
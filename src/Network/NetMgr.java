@@ -3,6 +3,9 @@ package Network;
 import Map.Map;
 import Map.MapDescriptor;
 import Map.Direction;
+import Helper.Counter;
+import Helper.LatencyHistogram;
+import Helper.Metrics;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -20,6 +23,11 @@ public class NetMgr {
 
     private static final Logger LOGGER = Logger.getLogger(NetMgr.class.getName());
 
+    private static final Counter SENT = Metrics.counter("net.sent");
+    private static final Counter RECEIVED = Metrics.counter("net.received");
+    private static final LatencyHistogram SEND_LATENCY = Metrics.histogram("net.send");
+    private static final LatencyHistogram RECEIVE_WAIT = Metrics.histogram("net.receive.wait");
+
     private String ip;
     private int port;
     public static Socket socket = null;
@@ -31,6 +39,8 @@ public class NetMgr {
 
     private static NetMgr netMgr = null;
 
+    private RunJournalWriter journal = null;
+
     public NetMgr(String ip, int port) {
         this.ip = ip;
         this.port = port;
@@ -43,6 +53,42 @@ public class NetMgr {
         return netMgr;
     }
 
+    /**
+     * Replace the instance used by the robot, e.g. by a ReplayNetMgr
+     * @param instance
+     */
+    public static void setInstance(NetMgr instance) {
+        netMgr = instance;
+    }
+
+    /**
+     * Record the messages sent and received to a run journal, replacing any previous journal
+     * @param filename
+     * @return true if the journal is created
+     */
+    public synchronized boolean startJournal(String filename) {
+        stopJournal();
+        try {
+            journal = new RunJournalWriter(filename);
+            LOGGER.info("Recording run journal to " + filename);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warning("Cannot create run journal " + filename + ": " + e.toString());
+            return false;
+        }
+    }
+
+    public synchronized void stopJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.warning("Cannot close run journal: " + e.toString());
+            }
+            journal = null;
+        }
+    }
+
     public String getIp() {
         return this.ip;
     }
@@ -75,6 +121,13 @@ public class NetMgr {
                 out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream()));
                 in = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
                 LOGGER.info("Connection with RPI established!");
+                // record the session when started with -Dmdp.journal.dir=<dir>, a reconnection keeps the journal
+                String journalDir = System.getProperty("mdp.journal.dir");
+                if (journalDir != null && journal == null) {
+                    new File(journalDir).mkdirs();
+                    startJournal(new File(journalDir, String.format("run-%tY%<tm%<td-%<tH%<tM%<tS.mdpj",
+                            System.currentTimeMillis())).getPath());
+                }
                 return true;
             } catch (UnknownHostException e) {
                 LOGGER.warning("Connection Failed: UnknownHostException\n" + e.toString());
@@ -95,6 +148,7 @@ public class NetMgr {
      * @return True if there is no more connection with RPI
      */
     public boolean closeConn() {
+        stopJournal();
         LOGGER.info("Closing connection... ");
         if(!isConnect()) {
             LOGGER.warning("No connection with RPI");
@@ -123,11 +177,18 @@ public class NetMgr {
     public boolean send(String msg) {
         try {
             LOGGER.log(Level.FINE, "Sending Message...");
+            long start = System.nanoTime();
             out.write(msg);
             out.newLine();
             out.flush();
+            SEND_LATENCY.recordSince(start);
+            SENT.increment();
+            RunJournalWriter journal = this.journal;
+            if (journal != null) {
+                journal.sent(msg);
+            }
             msgCounter++;
-            LOGGER.info(msgCounter +" Message Sent: " + msg);
+            LOGGER.log(Level.INFO, "{0} Message Sent: {1}", new Object[]{msgCounter, msg});
             prevMsg = msg;
             return true;
         } catch (IOException e) {
@@ -154,11 +215,18 @@ public class NetMgr {
     public String receive() {
         try {
             LOGGER.log(Level.FINE, "Receving Message...");
+            long start = System.nanoTime();
             String receivedMsg = in.readLine();
             while(receivedMsg == null || receivedMsg.isEmpty()) {
                 receivedMsg = in.readLine();
             }
-            LOGGER.info("Received in receive(): " + receivedMsg);
+            RECEIVE_WAIT.recordSince(start);
+            RECEIVED.increment();
+            RunJournalWriter journal = this.journal;
+            if (journal != null) {
+                journal.received(receivedMsg);
+            }
+            LOGGER.log(Level.INFO, "Received in receive(): {0}", receivedMsg);
             return receivedMsg;
         } catch(IOException e) {
             LOGGER.info("Receiving Message Failed (IOException)!");
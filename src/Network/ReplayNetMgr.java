@@ -0,0 +1,137 @@
+package Network;
+
+import Helper.RunClock;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * NetMgr replaying a run journal instead of talking to the RPI. Each receive returns the next received message
+ * of the journal and sets the virtual RunClock to its recorded time, so a run replays without waiting.
+ * Each send is checked against the next sent message of the journal, the sends which differ (e.g. after a change of
+ * the algorithm) are counted as divergences.
+ */
+public class ReplayNetMgr extends NetMgr {
+
+    private static final Logger LOGGER = Logger.getLogger(ReplayNetMgr.class.getName());
+
+    /**
+     * Thrown by receive when the journal has no more received message, which ends the replayed run
+     */
+    public static class EndOfJournalException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        EndOfJournalException() {
+            super("End of run journal");
+        }
+    }
+
+    private final RunJournal journal;
+    private RunJournal.Entry pending = null;    // entry read ahead and not consumed yet
+    private int sent = 0;
+    private int received = 0;
+    private int divergences = 0;
+    private int firstDivergence = -1;
+    private String firstExpected;
+    private String firstActual;
+
+    public ReplayNetMgr(RunJournal journal) {
+        super("replay", 0);
+        this.journal = journal;
+        RunClock.useVirtualClock(journal.getStartMillis());
+    }
+
+    @Override
+    public boolean initConn() {
+        return true;
+    }
+
+    @Override
+    public boolean closeConn() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnect() {
+        return true;
+    }
+
+    @Override
+    public synchronized boolean send(String msg) {
+        sent++;
+        RunJournal.Entry entry = peek();
+        if (entry != null && entry.isSent()) {
+            pending = null;
+            if (entry.getMsg().equals(msg)) {
+                return true;
+            }
+            diverge(entry.getMsg(), msg);
+        }
+        else {
+            diverge(null, msg);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String receive() {
+        RunJournal.Entry entry;
+        // the recorded sends the replayed run did not make are divergences as well
+        while ((entry = peek()) != null && entry.isSent()) {
+            pending = null;
+            diverge(entry.getMsg(), null);
+        }
+        if (entry == null) {
+            throw new EndOfJournalException();
+        }
+        pending = null;
+        received++;
+        RunClock.advanceTo(journal.getStartMillis() + entry.getTimeMicros() / 1000);
+        return entry.getMsg();
+    }
+
+    private RunJournal.Entry peek() {
+        if (pending == null) {
+            try {
+                pending = journal.next();
+            } catch (IOException e) {
+                LOGGER.warning("Cannot read run journal: " + e.toString());
+                pending = null;
+            }
+        }
+        return pending;
+    }
+
+    private void diverge(String expected, String actual) {
+        if (divergences == 0) {
+            firstDivergence = sent;
+            firstExpected = expected;
+            firstActual = actual;
+            LOGGER.warning(String.format("Replay diverges at send %d: recorded %s, replayed %s", sent, expected, actual));
+        }
+        divergences++;
+    }
+
+    public int getSent() {
+        return sent;
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    public int getDivergences() {
+        return divergences;
+    }
+
+    /**
+     * @return summary of the replay
+     */
+    public String getSummary() {
+        String summary = String.format("Replayed %d received and %d sent messages, %d divergences", received, sent, divergences);
+        if (divergences > 0) {
+            summary += String.format(" (first at send %d: recorded %s, replayed %s)", firstDivergence, firstExpected, firstActual);
+        }
+        return summary;
+    }
+}
@@ -9,21 +9,43 @@ import Robot.*;
 import java.awt.*;
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import Helper.Counter;
+import Helper.LatencyHistogram;
+import Helper.Metrics;
 import Robot.Robot;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 
-public class RequestHandler extends Thread {
+/**
+ * Session of ServerSim with one client: the handler emulates the RPI/Arduino of its own robot and arena
+ * and reports the throughput of the session when the client disconnects.
+ */
+public class RequestHandler implements Runnable {
 
     private static final Logger LOGGER = Logger.getLogger(RequestHandler.class.getName());
+
+    // steps per second given to the robot of the handler so that it does not sleep, the profile sets the latency
+    private static final int NO_MOTION_DELAY = Integer.MAX_VALUE;
+
+    private static final LatencyHistogram COMMAND_LATENCY = Metrics.histogram("server.command");
+    private static final Counter COMMANDS = Metrics.counter("server.commands");
+
     private BufferedWriter out;
     private BufferedReader in;
+    // lines read while checking for a stop, before the next ones from in
+    private final ArrayDeque<String> inbox = new ArrayDeque<String>();
     private Socket socket;
     private int msgCounter = 0;
     private String prevMsg = null;
@@ -31,6 +53,22 @@ public class RequestHandler extends Thread {
     private Map realMap;
     private Map exploredMap;
     private Robot robot;
+    private final RpiProfile profile;
+    private final Random random;
+    private final int sessionId;
+    private final ExecutorService executor;
+
+    // session stats
+    private long startNanos;
+    private int received = 0;
+    private int commands = 0;
+    private int sent = 0;
+    private long commandNanos = 0;
+    private long maxCommandNanos = 0;
+
+    // messages waiting for their delivery time when the profile delays the link
+    private final DelayQueue<Outbound> outbound = new DelayQueue<Outbound>();
+    private long outboundSeq = 0;
 
     // hard coded for testing checklist
 //    private Point startPoint = new Point(7, 2);
@@ -38,25 +76,77 @@ public class RequestHandler extends Thread {
     // hard coded for testing exploration
     private Point startPoint = new Point(MapConstants.STARTZONE_COL, MapConstants.STARTZONE_ROW);
 
-    private Point wayPoint = new Point(MapConstants.GOALZONE_COL, MapConstants.GOALZONE_ROW);
+    private Point wayPoint;
+
+    /**
+     * Message to the client delivered at a given time, in send order for the same time
+     */
+    private static class Outbound implements Delayed {
+        private final String msg;
+        private final long deliverNanos;
+        private final long seq;
+
+        Outbound(String msg, long deliverNanos, long seq) {
+            this.msg = msg;
+            this.deliverNanos = deliverNanos;
+            this.seq = seq;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deliverNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            Outbound other = (Outbound) o;
+            int cmp = Long.compare(deliverNanos, other.deliverNanos);
+            return cmp != 0 ? cmp : Long.compare(seq, other.seq);
+        }
+    }
 
     public RequestHandler(Socket socket) throws IOException {
+        this(socket, RpiProfile.defaults(), 0, null);
+    }
+
+    /**
+     * @param socket
+     * @param profile
+     * @param sessionId id of the session in the logs
+     * @param executor runs the serial link of the session when the profile delays it, a new thread if null
+     * @throws IOException
+     */
+    public RequestHandler(Socket socket, RpiProfile profile, int sessionId, ExecutorService executor) throws IOException {
         this.socket = socket;
+        this.profile = profile;
+        // sessions of the same profile get different noise
+        this.random = new Random(profile.getSeed() + sessionId);
+        this.sessionId = sessionId;
+        this.executor = executor;
         init();
     }
 
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public int getCommands() {
+        return commands;
+    }
+
     private void init() throws IOException {
         out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream()));
         in = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
         String path = System.getProperty("java.class.path");
-        exploredMap = new Map();
-        realMap = new Map();
-        MDF.loadRealMap(realMap, "defaultMap.txt");
+        // both maps of the arena size given in the map file
+        MDF.setHexMapStr(profile.getMap());
+        exploredMap = MDF.createMap();
+        realMap = MDF.createMap();
+        MDF.loadRealMap(realMap, profile.getMap());
+        wayPoint = new Point(profile.getWayPointCol(realMap), profile.getWayPointRow(realMap));
         robot = new Robot(true, false, 1, 1, Direction.RIGHT);
-        robot.setStartPos(1, 13, exploredMap);
+        robot.setStartPos(profile.getStartRow(), profile.getStartCol(), exploredMap);
         robot.sense(exploredMap, realMap);
-        System.out.println(exploredMap.getExploredPercentage());
-        System.out.println(realMap.getExploredPercentage());
 //        System.out.println(realMap.getCell(8, 7));
     }
 
@@ -66,7 +156,7 @@ public class RequestHandler extends Thread {
                 .put("starting", "starting")
                 .put("x", robot.getPos().x + 1)
                 .put("y", robot.getPos().y + 1);
-        send(startPoint.toString());
+        sendControl(startPoint.toString());
     }
 
     public void sendWayPoint() {
@@ -75,14 +165,27 @@ public class RequestHandler extends Thread {
                 .put("waypoint", "waypoint")
                 .put("x", this.wayPoint.x + 1)
                 .put("y", this.wayPoint.y + 1);
-        send(wayPoint.toString());
+        sendControl(wayPoint.toString());
     }
 
     @Override
     public void run() {
+        Future<?> link = null;
+        Thread linkThread = null;
+        startNanos = System.nanoTime();
         try {
-            System.out.println( "Received a connection" );
+            LOGGER.info(String.format("Session %d: connection from %s", sessionId, socket.getRemoteSocketAddress()));
             String data;
+            if (profile.hasLinkDelay()) {
+                if (executor != null) {
+                    link = executor.submit(this::deliverLoop);
+                }
+                else {
+                    linkThread = new Thread(this::deliverLoop, "session-" + sessionId + "-link");
+                    linkThread.setDaemon(true);
+                    linkThread.start();
+                }
+            }
 
 //            TimeUnit.MILLISECONDS.sleep(1000);
 
@@ -94,33 +197,55 @@ public class RequestHandler extends Thread {
             // For exploration
             sendWayPoint();
             sendStartMsg();
-            send(NetworkConstants.START_EXP);
+            sendControl(NetworkConstants.START_EXP);
 
 
             // For fastest path
 //            robot.setFindingFP(true);
 //            send(NetworkConstants.START_FP);
 
-            while (true) {
-                // wait for incoming data
-                do {
-                    data = receive();
-                } while(data == null);
-
+            // until the client disconnects
+            while ((data = receive()) != null) {
+                if (data.isEmpty()) {
+                    continue;
+                }
+                received++;
+                long cmdStart = System.nanoTime();
                 handle(data);
+                long cmdNanos = System.nanoTime() - cmdStart;
+                COMMAND_LATENCY.record(cmdNanos);
+                commandNanos += cmdNanos;
+                maxCommandNanos = Math.max(maxCommandNanos, cmdNanos);
             }
-
-            // Close our connection
-//            in.close();
-//            out.close();
-//            socket.close();
-
-//            System.out.println( "Connection closed" );
         }
         catch( Exception e )
         {
             e.printStackTrace();
         }
+        finally {
+            if (link != null) {
+                link.cancel(true);
+            }
+            if (linkThread != null) {
+                linkThread.interrupt();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.warning(String.format("Session %d: cannot close socket", sessionId));
+            }
+            LOGGER.info(getSummary());
+        }
+    }
+
+    /**
+     * @return throughput of the session
+     */
+    public String getSummary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return String.format("Session %d: %.1f s, %d messages received, %d commands (%.1f/s), %d messages sent, " +
+                        "command time mean %.2f ms max %.2f ms", sessionId, seconds, received, commands, commands / seconds,
+                sent, received == 0 ? 0 : commandNanos / 1e6 / received, maxCommandNanos / 1e6);
     }
 
     public void handle(String msg) throws InterruptedException {
@@ -128,29 +253,36 @@ public class RequestHandler extends Thread {
         char imgChar = msg.charAt(0);
         msg = msg.substring(1);
         firstChar = msg.charAt(0);
-        LOGGER.info(Character.toString(firstChar));
+        LOGGER.log(Level.FINE, "{0}", firstChar);
         if (firstChar == '{' && !msg.contains("fastest")) {
-            System.out.println("Unhandled: " + msg);
+            LOGGER.log(Level.FINE, "Unhandled: {0}", msg);
         }
         else if (imgChar == 'I') {
             System.out.println("Receive img recognition\n");
         }
         else if (msg.contains("fastest")) {
-            System.out.println("waiting - 10 seconds");
-            TimeUnit.MILLISECONDS.sleep(10000);
+            System.out.println(String.format("waiting - %d ms", profile.getFastestPathDelayMs()));
+            TimeUnit.MILLISECONDS.sleep(profile.getFastestPathDelayMs());
             System.out.println("Starting fastest path");
-            send(NetworkConstants.START_FP);
+            sendControl(NetworkConstants.START_FP);
             robot.setFindingFP(true);
         }
         else {
             String[] commands = msg.split("\\|");
-            for (String cmd: commands) {
-                execute_command(cmd);
+            for (int i = 0; i < commands.length; i++) {
+                // a stop sent after the commands, received while they are being made, drops the rest
+                if (i > 0 && stopReceived()) {
+                    sendStopReply(commands.length - i);
+                    return;
+                }
+                execute_command(commands[i]);
             }
         }
     }
 
     private void execute_command(String cmd) throws InterruptedException {
+        commands++;
+        COMMANDS.increment();
         char firstChar = cmd.charAt(0);
         int step = 1;
         if (cmd.length() > 1) {
@@ -161,31 +293,44 @@ public class RequestHandler extends Thread {
                 sendSensorRes();
                 break;
             case 'W':
-                robot.move(Command.FORWARD, step, exploredMap, RobotConstants.STEP_PER_SECOND);
+            case 'F':
+                robot.move(Command.FORWARD, step, exploredMap, NO_MOTION_DELAY);
+                TimeUnit.MILLISECONDS.sleep(profile.getMoveMsPerStep() * step);
                 sendSensorRes();
                 break;
             case 'S':
-                robot.move(Command.BACKWARD, step, exploredMap, RobotConstants.STEP_PER_SECOND);
+            case 'B':
+                robot.move(Command.BACKWARD, step, exploredMap, NO_MOTION_DELAY);
+                TimeUnit.MILLISECONDS.sleep(profile.getMoveMsPerStep() * step);
                 sendSensorRes();
                 break;
             case 'D':
-                robot.turn(Command.TURN_RIGHT, RobotConstants.STEP_PER_SECOND);
+                robot.turn(Command.TURN_RIGHT, NO_MOTION_DELAY);
+                TimeUnit.MILLISECONDS.sleep(profile.getTurnMs());
                 sendSensorRes();
                 break;
             case 'A':
-                robot.turn(Command.TURN_LEFT, RobotConstants.STEP_PER_SECOND);
+                robot.turn(Command.TURN_LEFT, NO_MOTION_DELAY);
+                TimeUnit.MILLISECONDS.sleep(profile.getTurnMs());
                 sendSensorRes();
                 break;
             case 'O':
+                TimeUnit.MILLISECONDS.sleep(profile.getCalibrateMs());
                 sendSensorRes();
                 break;
             case 'P':
+                TimeUnit.MILLISECONDS.sleep(profile.getCalibrateMs());
                 sendSensorRes();
                 break;
+            case 'X':
+                // nothing left to stop
+                sendStopReply(0);
+                return;
             case 'N':
                 System.out.println("Calibrating");
-                robot.turn(Command.TURN_RIGHT, RobotConstants.STEP_PER_SECOND);
-                robot.turn(Command.TURN_RIGHT, RobotConstants.STEP_PER_SECOND);
+                robot.turn(Command.TURN_RIGHT, NO_MOTION_DELAY);
+                robot.turn(Command.TURN_RIGHT, NO_MOTION_DELAY);
+                TimeUnit.MILLISECONDS.sleep(2 * profile.getTurnMs() + profile.getCalibrateMs());
                 break;
             default:
                 LOGGER.warning("Wrong char, do nothing");
@@ -194,9 +339,44 @@ public class RequestHandler extends Thread {
         robot.sense(exploredMap, realMap);
     }
 
-    public void sendSensorRes() {
+    /**
+     * Read the lines the client has already sent, looking for a stop. The other lines are kept for receive.
+     * @return true if a stop was received, it is then consumed
+     */
+    private boolean stopReceived() {
+        try {
+            while (in.ready()) {
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (line.startsWith(NetworkConstants.ARDUINO + Command.ArduinoMove.X)) {
+                    received++;
+                    commands++;
+                    COMMANDS.increment();
+                    return true;
+                }
+                inbox.add(line);
+            }
+        } catch (IOException e) {
+            LOGGER.info("Checking for a stop failed (IOException)!");
+        }
+        return false;
+    }
+
+    /**
+     * Reply to a stop with the number of commands dropped, after the sensor frames of the commands made
+     * @param dropped
+     */
+    private void sendStopReply(int dropped) {
+        LOGGER.log(Level.FINE, "Stop: {0} commands dropped", dropped);
+        sendControl(Command.ArduinoMove.X.name() + dropped);
+    }
+
+    public void sendSensorRes() throws InterruptedException {
         robot.updateSensorRes(exploredMap, realMap);
-        send(formatSensorRes(robot.getSensorRes()));
+        TimeUnit.MILLISECONDS.sleep(profile.getSensorMs());
+        sendSerial(formatSensorRes(robot.getSensorRes()));
     }
 
     public String formatSensorRes(HashMap<String, Integer> sensorRes) {
@@ -205,12 +385,71 @@ public class RequestHandler extends Thread {
         for (String sname: robot.getSensorList()) {
             sb.append(sname);
             sb.append(":");
-            sb.append(sensorRes.get(sname));
+            sb.append(addNoise(robot.getSensor(sname), sensorRes.get(sname)));
             sb.append("|");
         }
         return sb.toString();
     }
 
+    /**
+     * @param sensor
+     * @param obsBlock perfect reading, -1 if no obstacle in range
+     * @return reading with the noise and dropouts of the profile, a dropout being out of range
+     */
+    private int addNoise(Sensor sensor, int obsBlock) {
+        if (profile.getDropoutRate() > 0 && random.nextDouble() < profile.getDropoutRate()) {
+            return 0;
+        }
+        if (obsBlock != -1 && profile.getNoiseRate() > 0 && random.nextDouble() < profile.getNoiseRate()) {
+            obsBlock += random.nextBoolean() ? 1 : -1;
+            obsBlock = Math.max(sensor.getMinRange(), Math.min(sensor.getMaxRange(), obsBlock));
+        }
+        return obsBlock;
+    }
+
+    /**
+     * Send an Arduino message to the client through the emulated serial link, delayed by the jitter and reordering
+     * of the profile
+     * @param msg
+     */
+    private void sendSerial(String msg) {
+        if (!profile.hasLinkDelay()) {
+            send(msg);
+            return;
+        }
+        long delayMs = profile.getJitterMs() > 0 ? random.nextInt(profile.getJitterMs() + 1) : 0;
+        if (profile.getReorderRate() > 0 && random.nextDouble() < profile.getReorderRate()) {
+            delayMs += profile.getReorderDelayMs();
+        }
+        outbound.put(new Outbound(msg, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs), outboundSeq++));
+    }
+
+    /**
+     * Send an Android message (start, waypoint) to the client, after the Arduino messages already sent
+     * @param msg
+     */
+    private void sendControl(String msg) {
+        if (!profile.hasLinkDelay()) {
+            send(msg);
+            return;
+        }
+        long deliverNanos = System.nanoTime();
+        for (Outbound pending : outbound) {
+            deliverNanos = Math.max(deliverNanos, pending.deliverNanos);
+        }
+        outbound.put(new Outbound(msg, deliverNanos, outboundSeq++));
+    }
+
+    private void deliverLoop() {
+        try {
+            while (true) {
+                send(outbound.take().msg);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.info("Link thread interrupted");
+        }
+    }
+
     /**
      * Sending a String type msg through socket
      * @param msg
@@ -223,7 +462,8 @@ public class RequestHandler extends Thread {
             out.newLine();
             out.flush();
             msgCounter++;
-            LOGGER.info(msgCounter +" Message Sent: " + msg);
+            sent++;
+            LOGGER.log(Level.FINE, "{0} Message Sent: {1}", new Object[]{msgCounter, msg});
             prevMsg = msg;
             return true;
         } catch (IOException e) {
@@ -236,14 +476,21 @@ public class RequestHandler extends Thread {
         }
     }
 
+    /**
+     * @return next line from the client, empty for an empty line, null when the client has disconnected
+     */
     public String receive() {
+        String queued = inbox.poll();
+        if (queued != null) {
+            return queued;
+        }
         try {
             LOGGER.log(Level.FINE, "Receving Message...");
             String receivedMsg = in.readLine();
             if(receivedMsg != null && receivedMsg.length() > 0) {
-                LOGGER.info("Received in receive(): " + receivedMsg);
-                return receivedMsg;
+                LOGGER.log(Level.FINE, "Received in receive(): {0}", receivedMsg);
             }
+            return receivedMsg;
         } catch(IOException e) {
             LOGGER.info("Receiving Message Failed (IOException)!");
         } catch(Exception e) {
@@ -0,0 +1,168 @@
+package Network;
+
+import Map.Map;
+import Robot.RobotConstants;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Behaviour of the RPI/Arduino emulated by ServerSim, loaded from a JSON profile. Missing keys keep the defaults,
+ * which are the ideal robot: instant perfect readings, motion at STEP_PER_SECOND and no link delay.
+ *
+ * Keys: map, startRow, startCol, wayPointRow, wayPointCol, moveMsPerStep, turnMs, calibrateMs, sensorMs,
+ * jitterMs, noiseRate, dropoutRate, reorderRate, reorderDelayMs, fastestPathDelayMs, seed.
+ */
+public class RpiProfile {
+
+    private String map = "defaultMap.txt";
+    private int startRow = 1;
+    private int startCol = 13;
+    // the goal zone of the map when not set
+    private int wayPointRow = -1;
+    private int wayPointCol = -1;
+
+    // time taken by the Arduino to execute a command before sending the sensor readings
+    private int moveMsPerStep = (int) (RobotConstants.WAIT_TIME / RobotConstants.STEP_PER_SECOND);
+    private int turnMs = (int) (RobotConstants.WAIT_TIME / RobotConstants.STEP_PER_SECOND);
+    private int calibrateMs = 0;
+    private int sensorMs = 0;
+
+    // serial link: each message is delayed by up to jitterMs, and some by reorderDelayMs more so later ones overtake it
+    private int jitterMs = 0;
+    private double reorderRate = 0;
+    private int reorderDelayMs = 0;
+
+    // sensors: a reading is off by one block with noiseRate, and lost (out of range) with dropoutRate
+    private double noiseRate = 0;
+    private double dropoutRate = 0;
+
+    private int fastestPathDelayMs = 10000;
+    private long seed = 0;
+
+    public static RpiProfile defaults() {
+        return new RpiProfile();
+    }
+
+    /**
+     * @param filename JSON profile
+     * @return profile with the values of the file, the defaults for the missing keys
+     * @throws IOException
+     */
+    public static RpiProfile load(String filename) throws IOException {
+        FileReader reader = new FileReader(filename);
+        JSONObject json;
+        try {
+            json = new JSONObject(new JSONTokener(reader));
+        } finally {
+            reader.close();
+        }
+        RpiProfile profile = new RpiProfile();
+        profile.map = json.optString("map", profile.map);
+        profile.startRow = json.optInt("startRow", profile.startRow);
+        profile.startCol = json.optInt("startCol", profile.startCol);
+        profile.wayPointRow = json.optInt("wayPointRow", profile.wayPointRow);
+        profile.wayPointCol = json.optInt("wayPointCol", profile.wayPointCol);
+        profile.moveMsPerStep = json.optInt("moveMsPerStep", profile.moveMsPerStep);
+        profile.turnMs = json.optInt("turnMs", profile.turnMs);
+        profile.calibrateMs = json.optInt("calibrateMs", profile.calibrateMs);
+        profile.sensorMs = json.optInt("sensorMs", profile.sensorMs);
+        profile.jitterMs = json.optInt("jitterMs", profile.jitterMs);
+        profile.reorderRate = json.optDouble("reorderRate", profile.reorderRate);
+        profile.reorderDelayMs = json.optInt("reorderDelayMs", profile.reorderDelayMs);
+        profile.noiseRate = json.optDouble("noiseRate", profile.noiseRate);
+        profile.dropoutRate = json.optDouble("dropoutRate", profile.dropoutRate);
+        profile.fastestPathDelayMs = json.optInt("fastestPathDelayMs", profile.fastestPathDelayMs);
+        profile.seed = json.optLong("seed", profile.seed);
+        return profile;
+    }
+
+    public String getMap() {
+        return map;
+    }
+
+    public int getStartRow() {
+        return startRow;
+    }
+
+    public int getStartCol() {
+        return startCol;
+    }
+
+    /**
+     * @param map arena loaded from getMap
+     * @return row of the waypoint, the goal zone row of the map if the profile does not set it
+     */
+    public int getWayPointRow(Map map) {
+        return wayPointRow >= 0 ? wayPointRow : map.getGoalZoneRow();
+    }
+
+    /**
+     * @param map arena loaded from getMap
+     * @return col of the waypoint, the goal zone col of the map if the profile does not set it
+     */
+    public int getWayPointCol(Map map) {
+        return wayPointCol >= 0 ? wayPointCol : map.getGoalZoneCol();
+    }
+
+    public int getMoveMsPerStep() {
+        return moveMsPerStep;
+    }
+
+    public int getTurnMs() {
+        return turnMs;
+    }
+
+    public int getCalibrateMs() {
+        return calibrateMs;
+    }
+
+    public int getSensorMs() {
+        return sensorMs;
+    }
+
+    public int getJitterMs() {
+        return jitterMs;
+    }
+
+    public double getReorderRate() {
+        return reorderRate;
+    }
+
+    public int getReorderDelayMs() {
+        return reorderDelayMs;
+    }
+
+    public double getNoiseRate() {
+        return noiseRate;
+    }
+
+    public double getDropoutRate() {
+        return dropoutRate;
+    }
+
+    public int getFastestPathDelayMs() {
+        return fastestPathDelayMs;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return true if the messages are not sent as soon as they are ready
+     */
+    public boolean hasLinkDelay() {
+        return jitterMs > 0 || (reorderRate > 0 && reorderDelayMs > 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("map=%s start=(%d,%d) move=%dms/step turn=%dms calibrate=%dms sensor=%dms jitter=%dms " +
+                        "noise=%.3f dropout=%.3f reorder=%.3f/%dms", map, startRow, startCol, moveMsPerStep, turnMs,
+                calibrateMs, sensorMs, jitterMs, noiseRate, dropoutRate, reorderRate, reorderDelayMs);
+    }
+}
@@ -0,0 +1,150 @@
+package Network;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary journal of the messages exchanged with the RPI during a run, read in order for replay.
+ *
+ * Format (big endian):
+ * header: magic (int), version (short), start time in epoch ms (long)
+ * entry: type (byte, SENT or RECEIVED), time since the previous entry in us (varint),
+ * message length (varint), message (UTF-8 bytes)
+ *
+ * A journal cut short by a crash is read up to its last complete entry.
+ */
+public class RunJournal implements Closeable {
+
+    static final int MAGIC = 0x4D44504A;  // "MDPJ"
+    static final short VERSION = 1;
+
+    public static final byte SENT = 1;
+    public static final byte RECEIVED = 2;
+
+    public static class Entry {
+        private final byte type;
+        private final long timeMicros;
+        private final String msg;
+
+        Entry(byte type, long timeMicros, String msg) {
+            this.type = type;
+            this.timeMicros = timeMicros;
+            this.msg = msg;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public boolean isSent() {
+            return type == SENT;
+        }
+
+        /**
+         * @return time of the entry in us since the start of the journal
+         */
+        public long getTimeMicros() {
+            return timeMicros;
+        }
+
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.3fs %s", type == SENT ? "SENT" : "RECEIVED", timeMicros / 1e6, msg);
+        }
+    }
+
+    private final DataInputStream in;
+    private final long startMillis;
+    private long timeMicros = 0;
+    private boolean ended = false;
+
+    public RunJournal(String filename) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        if (in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException(filename + " is not a run journal");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            in.close();
+            throw new IOException(String.format("Unsupported run journal version %d in %s", version, filename));
+        }
+        startMillis = in.readLong();
+    }
+
+    /**
+     * @return start time of the journal in epoch ms
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return next entry, null at the end of the journal
+     * @throws IOException
+     */
+    public Entry next() throws IOException {
+        if (ended) {
+            return null;
+        }
+        try {
+            byte type = in.readByte();
+            if (type != SENT && type != RECEIVED) {
+                throw new IOException("Corrupted run journal, entry type " + type);
+            }
+            long delta = readVarLong(in);
+            int length = (int) readVarLong(in);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            timeMicros += delta;
+            return new Entry(type, timeMicros, new String(bytes, StandardCharsets.UTF_8));
+        } catch (EOFException e) {
+            ended = true;
+            return null;
+        }
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted run journal, varint too long");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Print a journal
+     * @param args journal file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: RunJournal <journal>");
+            return;
+        }
+        RunJournal journal = new RunJournal(args[0]);
+        Entry entry;
+        while ((entry = journal.next()) != null) {
+            System.out.println(entry);
+        }
+        journal.close();
+    }
+}
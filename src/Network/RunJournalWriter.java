@@ -0,0 +1,73 @@
+package Network;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Record the messages exchanged with the RPI to a run journal, see RunJournal for the format.
+ * Every entry is flushed so that the journal survives a crash of the run.
+ */
+public class RunJournalWriter implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(RunJournalWriter.class.getName());
+
+    private final DataOutputStream out;
+    private final long startNanos;
+    private long lastMicros = 0;
+    private boolean failed = false;
+
+    public RunJournalWriter(String filename) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        startNanos = System.nanoTime();
+        out.writeInt(RunJournal.MAGIC);
+        out.writeShort(RunJournal.VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+    }
+
+    public void sent(String msg) {
+        write(RunJournal.SENT, msg);
+    }
+
+    public void received(String msg) {
+        write(RunJournal.RECEIVED, msg);
+    }
+
+    private synchronized void write(byte type, String msg) {
+        if (failed) {
+            return;
+        }
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        try {
+            out.writeByte(type);
+            writeVarLong(out, micros - lastMicros);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+            out.flush();
+            lastMicros = micros;
+        } catch (IOException e) {
+            // the run goes on without its journal
+            LOGGER.warning("Cannot write run journal, recording stopped: " + e.toString());
+            failed = true;
+        }
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -1,24 +1,74 @@
 package Network;
+import Helper.AsyncLogHandler;
+import Helper.Counter;
+import Helper.LatencyHistogram;
+import Helper.Metrics;
+
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+/**
+ * Stand-in for the RPI accepting any number of concurrent clients, each session having its own robot and arena.
+ * Sessions run on virtual threads when the JVM has them (JDK 21+), on a cached thread pool otherwise.
+ * The throughput of the server is logged every REPORT_PERIOD seconds while there are sessions.
+ */
 public class ServerSim {
 
     private static final Logger LOGGER = Logger.getLogger(ServerSim.class.getName());
 
+    private static final int REPORT_PERIOD = 5;
+
     private int port;
     private static ServerSocket server = null;
+    private RpiProfile profile;
+    private final ExecutorService executor = newSessionExecutor();
+    private final AtomicInteger sessionIds = new AtomicInteger();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final Counter commands = Metrics.counter("server.commands");
+    private final LatencyHistogram commandLatency = Metrics.histogram("server.command");
+    private long lastCommands = 0;
 
     public ServerSim(int port) {
+        this(port, RpiProfile.defaults());
+    }
+
+    public ServerSim(int port, RpiProfile profile) {
         this.port = port;
+        this.profile = profile;
         initConn();
     }
 
+    /**
+     * @return executor starting a virtual thread per task if the JVM supports them, else a cached thread pool
+     */
+    static ExecutorService newSessionExecutor() {
+        try {
+            // looked up reflectively to keep compiling for Java 8
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.info("Sessions on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadIds = new AtomicInteger();
+            LOGGER.info("Sessions on platform threads");
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "session-" + threadIds.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
     public boolean initConn() {
         try {
-            server = new ServerSocket(port);
+            server = new ServerSocket(port, 1024);
             System.out.println("Listening...");
             return true;
         } catch (IOException e) {
@@ -29,26 +79,62 @@ public class ServerSim {
     }
 
     public void runServer() {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "server-report");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(this::report, REPORT_PERIOD, REPORT_PERIOD, TimeUnit.SECONDS);
         try {
             while (true) {
                 Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                int sessionId = sessionIds.incrementAndGet();
 
-                System.out.println("Client connected");
-
-                // Pass the socket to the RequestHandler thread for processing
-                RequestHandler requestHandler = new RequestHandler(socket);
-                requestHandler.start();
+                // the handler is created in its session, as it loads the arena
+                executor.execute(() -> {
+                    activeSessions.incrementAndGet();
+                    try {
+                        new RequestHandler(socket, profile, sessionId, executor).run();
+                    } catch (IOException e) {
+                        LOGGER.warning(String.format("Session %d failed: %s", sessionId, e.toString()));
+                    } finally {
+                        activeSessions.decrementAndGet();
+                    }
+                });
             }
         } catch (IOException e) {
             LOGGER.warning("Connection Failed: IOException\n" + e.toString());
+        } finally {
+            reporter.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    private void report() {
+        long total = commands.get();
+        long delta = total - lastCommands;
+        lastCommands = total;
+        if (delta == 0 && activeSessions.get() == 0) {
+            return;
         }
+        LOGGER.info(String.format("Sessions: %d active, %d total. Commands: %.1f/s, latency p50 %.2f ms p99 %.2f ms",
+                activeSessions.get(), sessionIds.get(), (double) delta / REPORT_PERIOD,
+                commandLatency.getPercentile(50) / 1e6, commandLatency.getPercentile(99) / 1e6));
     }
 
-    public static void main(String[] args) {
-        ServerSim serverSim = new ServerSim(NetworkConstants.PORT);
+    /**
+     * @param args [RPI profile (JSON), default ideal robot] [port]
+     */
+    public static void main(String[] args) throws IOException {
+        // the sessions log every command, keep the console out of their way
+        AsyncLogHandler.install();
+        RpiProfile profile = args.length > 0 ? RpiProfile.load(args[0]) : RpiProfile.defaults();
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : NetworkConstants.PORT;
+        LOGGER.info("RPI profile: " + profile);
+        ServerSim serverSim = new ServerSim(port, profile);
 
         serverSim.runServer();
     }
 
 }
-
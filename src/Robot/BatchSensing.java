@@ -0,0 +1,86 @@
+package Robot;
+
+import Map.Direction;
+import Map.ObstacleBitplane;
+
+import java.util.ArrayList;
+
+/**
+ * Sensor readings of the robot for a batch of poses at once, e.g. to score the candidate poses of a planner or
+ * to replay a run against a map. The sensor layout for each direction is taken from a Robot, so a reading is the
+ * one Sensor.detect gives at that pose, and each ray is read from an ObstacleBitplane.
+ */
+public class BatchSensing {
+
+    private static final int HEADINGS = Direction.values().length;
+
+    private final ArrayList<String> sensorIds;
+    private final int sensorCount;
+    // offsets from the robot centre, direction ordinal and range of sensor i for heading h, at h * sensorCount + i
+    private final int[] rowOffset;
+    private final int[] colOffset;
+    private final int[] sensorDir;
+    private final int[] minRange;
+    private final int[] maxRange;
+
+    public BatchSensing() {
+        Robot layout = new Robot(true, true, 1, 1, Direction.UP);
+        this.sensorIds = new ArrayList<String>(layout.getSensorList());
+        this.sensorCount = sensorIds.size();
+        rowOffset = new int[HEADINGS * sensorCount];
+        colOffset = new int[HEADINGS * sensorCount];
+        sensorDir = new int[HEADINGS * sensorCount];
+        minRange = new int[HEADINGS * sensorCount];
+        maxRange = new int[HEADINGS * sensorCount];
+        for (Direction dir : Direction.values()) {
+            Robot robot = new Robot(true, true, 1, 1, dir);
+            for (int i = 0; i < sensorCount; i++) {
+                Sensor s = robot.getSensor(sensorIds.get(i));
+                int k = dir.ordinal() * sensorCount + i;
+                rowOffset[k] = s.getRow() - robot.getPos().y;
+                colOffset[k] = s.getCol() - robot.getPos().x;
+                sensorDir[k] = s.getSensorDir().ordinal();
+                minRange[k] = s.getMinRange();
+                maxRange[k] = s.getMaxRange();
+            }
+        }
+    }
+
+    /**
+     * @return ids of the sensors, in the order of the readings of a pose
+     */
+    public ArrayList<String> getSensorIds() {
+        return sensorIds;
+    }
+
+    public int getSensorCount() {
+        return sensorCount;
+    }
+
+    /**
+     * Read all the sensors at each pose
+     * @param plane obstacles of the map
+     * @param rows rows of the robot centre, inside the map
+     * @param cols cols of the robot centre, inside the map
+     * @param dirs directions of the robot
+     * @param count number of poses
+     * @param readings filled with the reading of sensor i at pose p (as Sensor.detect, -1 if no obstacle in range)
+     * at p * getSensorCount() + i
+     */
+    public void detect(ObstacleBitplane plane, int[] rows, int[] cols, Direction[] dirs, int count, int[] readings) {
+        if (readings.length < count * sensorCount) {
+            throw new IllegalArgumentException(String.format("%d readings for %d poses of %d sensors",
+                    readings.length, count, sensorCount));
+        }
+        int out = 0;
+        for (int p = 0; p < count; p++) {
+            int row = rows[p];
+            int col = cols[p];
+            int k = dirs[p].ordinal() * sensorCount;
+            for (int i = 0; i < sensorCount; i++, k++) {
+                readings[out++] = plane.detect(row + rowOffset[k], col + colOffset[k], sensorDir[k], minRange[k],
+                        maxRange[k]);
+            }
+        }
+    }
+}
@@ -2,13 +2,33 @@ package Robot;
 
 public enum Command {
 
-    FORWARD, BACKWARD, TURN_LEFT, TURN_RIGHT, SEND_SENSORS, TAKE_IMG,  ALIGN_FRONT, ALIGN_RIGHT, INITIAL_CALIBERATE, FAST_FORWARD, FAST_BACKWARD, ERROR, START_EXP, ENDEXP, START_FAST, ENDFAST, ROBOT_POS;
+    FORWARD, BACKWARD, TURN_LEFT, TURN_RIGHT, SEND_SENSORS, TAKE_IMG,  ALIGN_FRONT, ALIGN_RIGHT, INITIAL_CALIBERATE, FAST_FORWARD, FAST_BACKWARD, STOP, ERROR, START_EXP, ENDEXP, START_FAST, ENDFAST, ROBOT_POS;
+
+    /**
+     * @return true if the Arduino answers the command with a sensor frame
+     */
+    public boolean isSensing() {
+        switch (this) {
+            case FORWARD:
+            case BACKWARD:
+            case TURN_LEFT:
+            case TURN_RIGHT:
+            case SEND_SENSORS:
+            case ALIGN_FRONT:
+            case ALIGN_RIGHT:
+            case FAST_FORWARD:
+            case FAST_BACKWARD:
+                return true;
+            default:
+                return false;
+        }
+    }
 
     public enum AndroidMove {
         forward, back, left, right
     }
 
     public enum ArduinoMove {
-        W, S, A, D, K, I, O, P, N, F, B
+        W, S, A, D, K, I, O, P, N, F, B, X
     }
 }
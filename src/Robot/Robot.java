@@ -7,15 +7,16 @@ import Map.MapConstants;
 import Map.Cell;
 import Map.ObsSurface;
 import java.awt.Point;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import Helper.*;
 import Network.NetMgr;
 import Network.NetworkConstants;
-import jdk.nashorn.internal.parser.JSONParser;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
@@ -25,6 +26,12 @@ public class Robot {
 
     private static final Logger LOGGER = Logger.getLogger(Robot.class.getName());
 
+    private static final LatencyHistogram SENSE_LATENCY = Metrics.histogram("robot.sense");
+    private static final LatencyHistogram ALIGN_FRONT_LATENCY = Metrics.histogram("robot.align.front");
+    private static final LatencyHistogram ALIGN_RIGHT_LATENCY = Metrics.histogram("robot.align.right");
+    private static final Counter OBSTACLE_FLIPS = Metrics.counter("map.obstacle.flip");
+    private static final Counter READINGS_OUTVOTED = Metrics.counter("map.occupancy.outvoted");
+
     private boolean sim;            // true if in simulator mode, false otherwise (actual)
     private boolean findingFP;      // true if doing fastest path, false otherwise (exploration)
     private boolean reachedGoal;
@@ -57,6 +64,20 @@ public class Robot {
 
     private boolean doingImage = false;
 
+    // commands sent ahead by sendPipelined and not executed yet by move/turn
+    private int pipelined = 0;
+    // sensor frames of commands sent ahead, received while waiting for the reply to a stop
+    private final ArrayDeque<String> pendingFrames = new ArrayDeque<String>();
+
+    /**
+     * Called on the robot thread before it waits for a sensor frame from the Arduino, e.g. to plan meanwhile
+     */
+    public interface FrameWaitListener {
+        void awaitingFrame(Robot robot);
+    }
+
+    private FrameWaitListener frameWaitListener;
+
 
     public Robot(boolean sim, boolean findingFP, int row, int col, Direction dir) {
         this.sim = sim;
@@ -156,6 +177,27 @@ public class Robot {
         this.sensorRes = sensorRes;
     }
 
+    /**
+     * @param frameWaitListener listener of the waits for a sensor frame (actual run only), null for none
+     */
+    public void setFrameWaitListener(FrameWaitListener frameWaitListener) {
+        this.frameWaitListener = frameWaitListener;
+    }
+
+    /**
+     * Expected sensor result at the current position: the known obstacles and the edges of the map are detected,
+     * the unexplored cells are taken as free.
+     * @param exploredMap
+     * @return HashMap<SensorId, ObsBlockDis>, -1 if no obstacle is expected in range
+     */
+    public HashMap<String, Integer> predictSensorRes(Map exploredMap) {
+        HashMap<String, Integer> predicted = new HashMap<String, Integer>();
+        for (String sname : sensorList) {
+            predicted.put(sname, sensorMap.get(sname).detect(exploredMap));
+        }
+        return predicted;
+    }
+
     public HashMap<String, ObsSurface> getSurfaceTaken() {
         return surfaceTaken;
     }
@@ -297,13 +339,19 @@ public class Robot {
     public void move(Command cmd, int steps, Map exploredMap, int stepsPerSecond) throws InterruptedException {
 
         tempStartTime = System.currentTimeMillis();
+        FlightEvents.CommandEvent event = FlightEvents.beginCommand();
 
         if (!sim && !findingFP) {
             // TODO to send fast forward
-            // send command to Arduino
-            String cmdStr = getCommand(cmd, steps);
+            // send command to Arduino, unless it was sent ahead
+            if (pipelined > 0) {
+                pipelined--;
+            }
+            else {
+                String cmdStr = getCommand(cmd, steps);
 //            LOGGER.info("Command String: " + cmdStr);
-            NetMgr.getInstance().send(NetworkConstants.ARDUINO + cmdStr);
+                NetMgr.getInstance().send(NetworkConstants.ARDUINO + cmdStr);
+            }
             // TODO if can delete if
             if (!findingFP) {
                 alignCount += steps;
@@ -355,7 +403,7 @@ public class Robot {
             status = String.format("%s for %d steps\n", cmd.toString(), steps);
             //printer.setText(printer.getText() + status + "\n" + pos.toString() + "\n");
             LOGGER.info(status);
-            LOGGER.info("row = " + newRow + ", col = " + newCol);
+            LOGGER.log(Level.INFO, "row = {0}, col = {1}", new Object[]{newRow, newCol});
 //            logSensorInfo();
 
             // delay for sim
@@ -368,6 +416,8 @@ public class Robot {
                 }
             }
             this.setPosition(newRow, newCol);
+            RunProfiler.motion(cmd, steps, stepsPerSecond);
+            FlightEvents.endCommand(event, cmd, steps, !sim && !findingFP);
             if(!findingFP) {
                 for (int i = 0; i < steps; i++) {
                     exploredMap.setPassThru(newRow - rowInc * i, newCol - colInc * i);
@@ -384,13 +434,19 @@ public class Robot {
     public void turn(Command cmd, int stepsPerSecond) throws InterruptedException {
 
         tempStartTime = System.currentTimeMillis();
+        FlightEvents.CommandEvent event = FlightEvents.beginCommand();
 //        if (!sim) {
         if (!sim && !findingFP) {
             // send command to Arduino
             // TODO: add turning degree
-            String cmdStr = getCommand(cmd, 1);
+            if (pipelined > 0) {
+                pipelined--;
+            }
+            else {
+                String cmdStr = getCommand(cmd, 1);
 //            LOGGER.info("Command String: " + cmdStr);
-            NetMgr.getInstance().send(NetworkConstants.ARDUINO + cmdStr);
+                NetMgr.getInstance().send(NetworkConstants.ARDUINO + cmdStr);
+            }
             // TODO if can delete if
             if(!findingFP) {
                 alignCount++;
@@ -413,10 +469,12 @@ public class Robot {
                 return;
         }
         preMove = cmd;
+        RunProfiler.motion(cmd, 1, stepsPerSecond);
+        FlightEvents.endCommand(event, cmd, 1, !sim && !findingFP);
         status = cmd.toString() + "\n";
         //printer.setText(printer.getText() + status + "\n" + pos.toString() + "\n");
         LOGGER.info(status);
-        LOGGER.info(pos.toString());
+        LOGGER.log(Level.INFO, "row = {0}, col = {1}", new Object[]{pos.y, pos.x});
 //        logSensorInfo();
 
         // delay for simulator
@@ -560,7 +618,7 @@ public class Robot {
         // send RPI if sensor reading within the camera range
         if ((sensorRes.get("R1") > 0 && sensorRes.get("R1") <= RobotConstants.CAMERA_MAX)
                 || (sensorRes.get("R2") > 0 && sensorRes.get("R2") <= RobotConstants.CAMERA_MAX)) {
-            if (!isRightHuggingWall()) {
+            if (!isRightHuggingWall(exploredMap)) {
                 sendRPI = true;
 
             }
@@ -701,6 +759,7 @@ public class Robot {
      * @param realMap
      */
     public ArrayList<ObsSurface> sense(Map exploredMap, Map realMap) {
+        long startNanos = System.nanoTime();
         ArrayList<ObsSurface> surfTaken = new ArrayList<ObsSurface>();
         HashMap<String, Integer> sensorResult = completeUpdateSensorResult(exploredMap, realMap);
         updateMap(exploredMap, realMap, sensorResult);
@@ -718,7 +777,7 @@ public class Robot {
             }
 
             // Realignment for front - turn right and align when it is not hugging the wall but R1 and R2 == 1 and turnAndAlignCount > CalibrationConstant
-            if (isRightHuggingWall()) {
+            if (isRightHuggingWall(exploredMap)) {
                 turnAndAlignCount = 0;
             }
             else {
@@ -741,6 +800,7 @@ public class Robot {
             // TODO: Camera facing right - check whether img is needed to be detected and send RPI if needed
             surfTaken = imageRecognitionRight(exploredMap);
         }
+        SENSE_LATENCY.recordSince(startNanos);
         return surfTaken;
     }
 
@@ -781,7 +841,7 @@ public class Robot {
             }
 
             // Realignment for front - turn right and align when it is not hugging the wall but R1 and R2 == 1 and turnAndAlignCount > CalibrationConstant
-            if (isRightHuggingWall()) {
+            if (isRightHuggingWall(exploredMap)) {
                 turnAndAlignCount = 0;
             }
             else {
@@ -868,16 +928,26 @@ public class Robot {
     }
 
     public HashMap<String, Integer> completeUpdateSensorResult(Map exploredMap, Map realMap) {
+        RunProfiler.enter(RunProfiler.Phase.SENSING);
+        FlightEvents.SensorFrameEvent event = FlightEvents.beginSensorFrame();
         HashMap<String, Integer> sensorResult;
 
         if(sim) {
             sensorResult = updateSensorRes(exploredMap, realMap);
+            FlightEvents.endSensorFrame(event, null);
         }
         else {
             // TODO: add in case arduino send
 //            String temp = NetMgr.getInstance().receive();
 //            String temp2 = NetMgr.getInstance().receive();
-            String msg = NetMgr.getInstance().receive();
+            String msg = pendingFrames.poll();
+            if (msg == null) {
+                if (frameWaitListener != null) {
+                    frameWaitListener.awaitingFrame(this);
+                }
+                msg = NetMgr.getInstance().receive();
+            }
+            FlightEvents.endSensorFrame(event, msg);
 //            while (msg.charAt(0) == 'L') {
 //                LOGGER.warning("Unknow character received. Get sensor again.");
 //                NetMgr.getInstance().send(NetworkConstants.ARDUINO + getCommand(Command.SEND_SENSORS, RobotConstants.MOVE_STEPS));
@@ -894,18 +964,38 @@ public class Robot {
 //                e.printStackTrace();
 //            }
         }
+        RunProfiler.exit();
         return sensorResult;
     }
 
     public void updateMap(Map exploredMap, Map realMap, HashMap<String, Integer> sensorResult) {
-        int obsBlock;
-        int rowInc=0, colInc=0, row, col;
-
         if(sensorResult == null) {
             LOGGER.warning("Invalid msg. Map not updated");
             return;
         }
 
+        RunProfiler.enter(RunProfiler.Phase.SENSING);
+        applySensorRes(exploredMap, sensorResult, true);
+        RunProfiler.exit();
+    }
+
+    /**
+     * Update a map with an expected sensor result, as updateMap but without counting the obstacle flips and the
+     * outvoted readings or profiling, e.g. on a copy of the explored map
+     * @param map
+     * @param sensorResult HashMap<SensorId, ObsBlockDis>, e.g. of predictSensorRes
+     */
+    public void applyPredictedSensorRes(Map map, HashMap<String, Integer> sensorResult) {
+        applySensorRes(map, sensorResult, false);
+    }
+
+    /**
+     * @param recorded true to count the obstacle flips and the outvoted readings in the metrics
+     */
+    private void applySensorRes(Map exploredMap, HashMap<String, Integer> sensorResult, boolean recorded) {
+        int obsBlock;
+        int rowInc=0, colInc=0, row, col;
+
         for(String sname: sensorList) {
             Sensor s = sensorMap.get(sname);
             obsBlock = sensorResult.get(sname);
@@ -943,19 +1033,15 @@ public class Robot {
                     exploredMap.getCell(row, col).setExplored(true);
 
                     if(j == obsBlock && !exploredMap.getCell(row, col).isMoveThru()) {
-                        exploredMap.getCell(row, col).setObstacle(true);
-                        exploredMap.setVirtualWall(exploredMap.getCell(row, col), true);
-                        exploredMap.reinitVirtualWall();
+                        updateOccupancy(exploredMap, row, col, s.getHitLogOdds(j), recorded);
                         break;
                     }
                     // if not in if
-                    // (1) j != obsBlock && cell isMoveThru     // do not need to update
+                    // (1) j != obsBlock && cell isMoveThru     // free, the evidence is added anyway
                     // (2) j == obsBlock && cell isMoveThru     // cannot be the case
                     // (3) j != obsBlock && cell !isMoveThru    // need to check
-                    else if (j != obsBlock && exploredMap.getCell(row, col).isObstacle()) {      // (3)
-                        exploredMap.getCell(row, col).setObstacle(false);
-                        exploredMap.setVirtualWall(exploredMap.getCell(row, col), false);
-                        exploredMap.reinitVirtualWall();
+                    else if (j != obsBlock) {      // (1), (3)
+                        updateOccupancy(exploredMap, row, col, s.getMissLogOdds(j), recorded);
                     }
                 }
                 else  {
@@ -967,6 +1053,34 @@ public class Robot {
         }
     }
 
+    /**
+     * Add a reading to the occupancy of a cell, and flip its obstacle flag (and the virtual walls) only when the
+     * occupancy crosses the threshold of the other state
+     * @param exploredMap
+     * @param row
+     * @param col
+     * @param logOdds evidence of the reading, positive for an obstacle
+     * @param recorded true to count the flip or the outvoted reading in the metrics
+     */
+    private void updateOccupancy(Map exploredMap, int row, int col, int logOdds, boolean recorded) {
+        int occupancy = exploredMap.addOccupancy(row, col, logOdds);
+        Cell cell = exploredMap.getCell(row, col);
+        boolean obstacle = cell.isObstacle();
+        if (!obstacle && occupancy >= RobotConstants.OCCUPIED_LOG_ODDS ||
+                obstacle && occupancy <= RobotConstants.FREE_LOG_ODDS) {
+            cell.setObstacle(!obstacle);
+            exploredMap.setVirtualWall(cell, !obstacle);
+            exploredMap.reinitVirtualWall();
+            if (recorded) {
+                OBSTACLE_FLIPS.increment();
+            }
+        }
+        else if (recorded && obstacle != logOdds > 0) {
+            // a reading against the obstacle layer without enough evidence to change it
+            READINGS_OUTVOTED.increment();
+        }
+    }
+
     public JSONArray getRobotArray() {
 
         JSONArray robotArray = new JSONArray();
@@ -1001,11 +1115,16 @@ public class Robot {
      * Send the current robot position/direction and status (if uncomment) to android
      */
     public void send_android() {
+        FlightEvents.AndroidUpdateEvent event = FlightEvents.beginAndroidUpdate();
+        RunProfiler.enter(RunProfiler.Phase.SERIALIZATION);
         JSONObject androidJson = new JSONObject();
 
         androidJson.put("robot", getRobotArray());
         androidJson.put("status", getStatusArray());
-        NetMgr.getInstance().send(NetworkConstants.ANDROID + androidJson.toString() + "\n");
+        String androidMsg = NetworkConstants.ANDROID + androidJson.toString() + "\n";
+        RunProfiler.exit();
+        NetMgr.getInstance().send(androidMsg);
+        FlightEvents.endAndroidUpdate(event, androidMsg, false);
 
     }
 
@@ -1014,12 +1133,17 @@ public class Robot {
      * @param exploredMap
      */
     public void send_android(Map exploredMap) {
+        FlightEvents.AndroidUpdateEvent event = FlightEvents.beginAndroidUpdate();
+        RunProfiler.enter(RunProfiler.Phase.SERIALIZATION);
         JSONObject androidJson = new JSONObject();
 
         androidJson.put("robot", getRobotArray());
         androidJson.put("map", getMapArray(exploredMap));
         androidJson.put("status", getStatusArray());
-        NetMgr.getInstance().send(NetworkConstants.ANDROID + androidJson.toString() + "\n");
+        String androidMsg = NetworkConstants.ANDROID + androidJson.toString() + "\n";
+        RunProfiler.exit();
+        NetMgr.getInstance().send(androidMsg);
+        FlightEvents.endAndroidUpdate(event, androidMsg, true);
 
 //            try {
 //                TimeUnit.MILLISECONDS.sleep(10);
@@ -1033,6 +1157,8 @@ public class Robot {
     public void align_front(Map exploredMap, Map realMap) { // realMap is null just to call sense
 
         if (sensorRes.get("F1") == 1 && sensorRes.get("F3") == 1) {
+            long startNanos = System.nanoTime();
+            FlightEvents.CommandEvent event = FlightEvents.beginCommand();
             // send align front
             String cmdStr = getCommand(Command.ALIGN_FRONT, 1);  // steps set to 0 to avoid appending to cmd
 //            LOGGER.info("Command String: " + cmdStr);
@@ -1047,6 +1173,8 @@ public class Robot {
                 senseWithoutAlign(exploredMap, realMap);
             }
             turnAndAlignCount = 0;
+            ALIGN_FRONT_LATENCY.recordSince(startNanos);
+            FlightEvents.endCommand(event, Command.ALIGN_FRONT, 1, true);
         }
 
     }
@@ -1072,6 +1200,8 @@ public class Robot {
                 break;
         }
         if (sensorRes.get("R1") == 1 && sensorRes.get("R2") == 1) {
+            long startNanos = System.nanoTime();
+            FlightEvents.CommandEvent event = FlightEvents.beginCommand();
             // send align right
             String cmdStr = getCommand(Command.ALIGN_RIGHT, aligning_index);
 //            LOGGER.info("Command String: " + cmdStr);
@@ -1085,6 +1215,8 @@ public class Robot {
             else {
                 senseWithoutAlign(exploredMap, realMap);
             }
+            ALIGN_RIGHT_LATENCY.recordSince(startNanos);
+            FlightEvents.endCommand(event, Command.ALIGN_RIGHT, aligning_index, true);
         }
 
     }
@@ -1092,16 +1224,17 @@ public class Robot {
     /**
      * Robot is right hugging the wall if the right sensor position is equal to
      * the lowest or highest possible row or col number
+     * @param exploredMap map giving the arena size
      * @return
      */
-    public boolean isRightHuggingWall() {
+    public boolean isRightHuggingWall(Map exploredMap) {
         Point R1_pos = sensorMap.get("R1").getPos();
         Point R2_pos = sensorMap.get("R2").getPos();
 
         if ((R1_pos.x == 0 && R2_pos.x == 0)
-                || (R1_pos.x == MapConstants.MAP_WIDTH - 1 && R2_pos.x == MapConstants.MAP_WIDTH - 1)
+                || (R1_pos.x == exploredMap.getWidth() - 1 && R2_pos.x == exploredMap.getWidth() - 1)
                 || (R1_pos.y == 0 && R2_pos.y == 0)
-                || (R1_pos.y == MapConstants.MAP_HEIGHT - 1 && R2_pos.y == MapConstants.MAP_HEIGHT - 1)) {
+                || (R1_pos.y == exploredMap.getHeight() - 1 && R2_pos.y == exploredMap.getHeight() - 1)) {
             return true;
         }
         else {
@@ -1174,6 +1307,66 @@ public class Robot {
         return commands;
     }
 
+    /**
+     * Send the next commands to the Arduino in one message, so that it executes them back to back and sends the
+     * sensor readings of each. The next move/turn calls for these commands only update the robot, they must be
+     * made in the same order, each followed by a sense to consume its readings. Nothing is sent in sim.
+     * @param cmd FORWARD, BACKWARD, TURN_LEFT or TURN_RIGHT
+     * @param count number of commands
+     */
+    public void sendPipelined(Command cmd, int count) {
+        if (sim || findingFP || count <= 0) {
+            return;
+        }
+        StringBuilder cmdStr = new StringBuilder(NetworkConstants.ARDUINO);
+        for (int i = 0; i < count; i++) {
+            cmdStr.append(getCommand(cmd, cmd == Command.FORWARD || cmd == Command.BACKWARD ? RobotConstants.MOVE_STEPS : 1));
+        }
+        NetMgr.getInstance().send(cmdStr.toString());
+        pipelined += count;
+    }
+
+    /**
+     * @return number of commands sent ahead and not executed yet
+     */
+    public int getPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Stop the commands sent ahead: the Arduino drops the ones it has not started and replies with their number,
+     * after the sensor frames of the ones it made. These frames are kept for the next senses, so the commands made
+     * must still be applied in order by move/turn (or skipPipelined), each followed by a sense.
+     * @return number of commands sent ahead that the Arduino made and that are not applied yet
+     */
+    public int stopPipelined() {
+        if (sim || findingFP || pipelined == 0) {
+            return pipelined;
+        }
+        NetMgr.getInstance().send(NetworkConstants.ARDUINO + getCommand(Command.STOP, 1));
+        String msg = NetMgr.getInstance().receive();
+        while (msg.charAt(0) != Command.ArduinoMove.X.name().charAt(0)) {
+            pendingFrames.add(msg);
+            msg = NetMgr.getInstance().receive();
+        }
+        pipelined -= Integer.parseInt(msg.substring(1));
+        if (pipelined != pendingFrames.size()) {
+            LOGGER.warning(String.format("Stop: %d commands made but %d frames received", pipelined,
+                    pendingFrames.size()));
+        }
+        return pipelined;
+    }
+
+    /**
+     * Take the next command sent ahead as not made by the robot, e.g. a forward move into an obstacle found after
+     * it was sent, which the Arduino does not make either. Its sensor frame must still be consumed by a sense.
+     */
+    public void skipPipelined() {
+        if (pipelined > 0) {
+            pipelined--;
+        }
+    }
+
     public String getCommand(Command cmd, int steps) {
         StringBuilder cmdStr = new StringBuilder();
 
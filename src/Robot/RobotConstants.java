@@ -15,6 +15,12 @@ public class RobotConstants {
     // max move
     public static final int MAX_MOVE = 9;   //9
 
+    // max number of forward moves sent ahead to the Arduino in one message while following a path in exploration
+    public static final int PIPELINE_DEPTH = 3;
+
+    // number of nearest explored cells evaluated by goToUnexplored, 1 to go to the nearest one
+    public static final int UNEXPLORED_CANDIDATES = 4;
+
     // targeted coverage
     public static final int TARGETED_COVERAGE = 97;
 
@@ -34,6 +40,17 @@ public class RobotConstants {
     public static final int LONG_MIN = 1;
     public static final int LONG_MAX = 4;
 
+    // Occupancy log-odds (x100) added to a cell by a reading of an obstacle (hit) or of free space (miss), by range
+    // from 1. A single reading decides an unknown cell; the obstacle flag only flips back once the evidence has
+    // crossed the opposite threshold.
+    public static final short[] SHORT_HIT_LOG_ODDS = {85, 62};
+    public static final short[] SHORT_MISS_LOG_ODDS = {-85, -62};
+    public static final short[] LONG_HIT_LOG_ODDS = {70, 55, 40, 30};
+    public static final short[] LONG_MISS_LOG_ODDS = {-70, -55, -40, -30};
+    public static final int OCCUPIED_LOG_ODDS = 20;
+    public static final int FREE_LOG_ODDS = -20;
+    public static final int MAX_LOG_ODDS = 300;
+
     // Camera default range (In grids)
     public static final int CAMERA_MIN = 1;
     public static final int CAMERA_MAX = SHORT_MAX;     // to synchronize with shortmax
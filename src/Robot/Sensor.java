@@ -21,6 +21,24 @@ public class Sensor {
         this.sensorDir = sensorDir;
     }
 
+    /**
+     * @param range range of the obstacle read, from minRange to maxRange
+     * @return occupancy log-odds of a reading of an obstacle at range
+     */
+    public int getHitLogOdds(int range) {
+        short[] table = maxRange > RobotConstants.SHORT_MAX ? RobotConstants.LONG_HIT_LOG_ODDS : RobotConstants.SHORT_HIT_LOG_ODDS;
+        return table[Math.min(range, table.length) - 1];
+    }
+
+    /**
+     * @param range range of a cell read as free, from minRange to maxRange
+     * @return occupancy log-odds of a reading of free space at range
+     */
+    public int getMissLogOdds(int range) {
+        short[] table = maxRange > RobotConstants.SHORT_MAX ? RobotConstants.LONG_MISS_LOG_ODDS : RobotConstants.SHORT_MISS_LOG_ODDS;
+        return table[Math.min(range, table.length) - 1];
+    }
+
     // Getters and Setters
     public String getId() {
         return id;
@@ -84,17 +102,17 @@ public class Sensor {
                 case UP:
 //                    if (pos.y + cur > MapConstants.MAP_HEIGHT - 1)
 //                        return -1;
-                    if (pos.y + cur == MapConstants.MAP_HEIGHT)
+                    if (pos.y + cur == map.getHeight())
                         return cur;
-                    else if (map.getCell(pos.y + cur, pos.x).isObstacle())
+                    else if (map.isObstacle(pos.y + cur, pos.x))
                         return cur;
                     break;
                 case RIGHT:
 //                    if (pos.x + cur > MapConstants.MAP_WIDTH - 1)
 //                        return -1;
-                    if (pos.x + cur == MapConstants.MAP_WIDTH)
+                    if (pos.x + cur == map.getWidth())
                         return cur;
-                    else if (map.getCell(pos.y, pos.x + cur).isObstacle())
+                    else if (map.isObstacle(pos.y, pos.x + cur))
                         return cur;
                     break;
                 case DOWN:
@@ -102,7 +120,7 @@ public class Sensor {
 //                        return -1;
                     if (pos.y - cur == -1)
                         return cur;
-                    else if (map.getCell(pos.y - cur, pos.x).isObstacle())
+                    else if (map.isObstacle(pos.y - cur, pos.x))
                         return cur;
                     break;
                 case LEFT:
@@ -110,7 +128,7 @@ public class Sensor {
 //                        return -1;
                     if (pos.x - cur == -1)
                         return cur;
-                    else if (map.getCell(pos.y, pos.x - cur).isObstacle())
+                    else if (map.isObstacle(pos.y, pos.x - cur))
                         return cur;
                     break;
             }